@@ -0,0 +1,487 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Content addressed store of files with deduplication.
+ * <p>
+ * Every blob is stored once under the SHA-256 of its content, in directories sharded by
+ * the first two hex digits. Logical names point to blobs through an index that counts
+ * the names of every blob, so storing content that is already there, or naming an
+ * existing blob again, only updates the index. Blobs no longer named are deleted by
+ * {@link #collectGarbage}. The index is an append only binary journal with raw digests,
+ * compacted when most of it is stale; a record cut short by a crash is ignored.
+ */
+
+public class BlobStore implements Closeable {
+
+    private static final String INDEX_FILE = "index";
+    private static final String INDEX_FILE_TMP = "index.tmp";
+    private static final String OBJECTS_DIR = "objects";
+    private static final String TMP_DIR = "tmp";
+    private static final int MAGIC = 0x426c6f62; // "Blob"
+    private static final int VERSION = 1;
+
+    private static final byte LINK = 1;
+    private static final byte UNLINK = 2;
+
+    private static final int DIGEST_LENGTH = 32;
+
+    /**
+     * Names are written with writeUTF, which takes at most 65535 bytes
+     */
+    private static final int MAX_NAME_UTF_LENGTH = 65535;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Stale index records before the index is compacted
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File directory;
+    private final File objects;
+    private final File tmp;
+    private final Map<String, String> names = new HashMap<>();
+    private final Map<String, Integer> references = new HashMap<>();
+
+    private DataOutputStream index;
+    private int redundantOpCount;
+    private int tmpCount;
+
+    private int deduplicatedCount;
+    private long deduplicatedBytes;
+
+    private BlobStore(File directory) {
+        this.directory = directory;
+        this.objects = new File(directory, OBJECTS_DIR);
+        this.tmp = new File(directory, TMP_DIR);
+    }
+
+    /**
+     * <p>Open the store in the directory, creating it if needed</p>
+     *
+     * @param directory the store directory, used exclusively by this store, not null
+     * @return opened store
+     * @throws IOException when the directory can not be created or the index written
+     */
+    @WorkerThread
+    public static BlobStore open(@NonNull File directory) throws IOException {
+        BlobStore store = new BlobStore(directory);
+        if (!store.objects.isDirectory() && !store.objects.mkdirs()
+                || !store.tmp.isDirectory() && !store.tmp.mkdirs()) {
+            throw new IOException("Can not create blob store in " + directory);
+        }
+        synchronized (store) {
+            store.readIndex();
+            store.deleteTemporaryFiles();
+            store.rewriteIndex();
+        }
+        return store;
+    }
+
+    /**
+     * <p>Store the content of a file under a name, replacing what the name pointed to.
+     * Content already in the store is not copied.</p>
+     *
+     * @param name   the logical name, at most 65535 bytes in modified UTF-8, not null
+     * @param source the file to store, not altered, not null
+     * @return hex digest of the content
+     * @throws IOException when the file can not be read or stored
+     */
+    @WorkerThread
+    public String put(@NonNull String name, @NonNull File source) throws IOException {
+        checkName(name);
+        String hash = EncryptionUtils.toHex(EncryptionUtils.sha256(source));
+        synchronized (this) {
+            if (references.containsKey(hash) && getBlobFile(hash).isFile()) {
+                deduplicatedCount++;
+                deduplicatedBytes += source.length();
+                bind(name, hash);
+                return hash;
+            }
+        }
+
+        // the copy is hashed again, the file may have changed since it was hashed
+        MessageDigest digest = EncryptionUtils.newSha256();
+        File temporary;
+        InputStream in = new FileInputStream(source);
+        try {
+            temporary = writeTemporary(in, digest);
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+        if (!hash.equals(EncryptionUtils.toHex(digest.digest()))) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            throw new IOException(source + " changed while it was stored");
+        }
+        commit(name, hash, temporary);
+        return hash;
+    }
+
+    /**
+     * <p>Store the content of a stream under a name, replacing what the name pointed to.
+     * The stream is read once, content already in the store is dropped instead of kept
+     * twice. The stream is not closed.</p>
+     *
+     * @param name the logical name, at most 65535 bytes in modified UTF-8, not null
+     * @param in   the content, not null
+     * @return hex digest of the content
+     * @throws IOException when the stream can not be read or stored
+     */
+    @WorkerThread
+    public String put(@NonNull String name, @NonNull InputStream in) throws IOException {
+        checkName(name);
+        MessageDigest digest = EncryptionUtils.newSha256();
+        File temporary = writeTemporary(in, digest);
+        String hash = EncryptionUtils.toHex(digest.digest());
+        commit(name, hash, temporary);
+        return hash;
+    }
+
+    /**
+     * <p>Give the blob of a name another name, no content is copied</p>
+     *
+     * @param name     the new name, at most 65535 bytes in modified UTF-8, not null
+     * @param existing a stored name, not null
+     * @return false if existing is not stored
+     */
+    public synchronized boolean link(@NonNull String name, @NonNull String existing) throws IOException {
+        checkName(name);
+        String hash = names.get(existing);
+        if (hash == null) return false;
+        bind(name, hash);
+        return true;
+    }
+
+    /**
+     * <p>Get the file of a name. The file is shared by every name with the same content
+     * and must not be altered.</p>
+     *
+     * @param name the logical name, not null
+     * @return the blob file or null if the name is not stored
+     */
+    @Nullable
+    public synchronized File get(@NonNull String name) {
+        String hash = names.get(name);
+        return hash == null ? null : getBlobFile(hash);
+    }
+
+    /**
+     * @return hex digest of the content of a name or null if the name is not stored
+     */
+    @Nullable
+    public synchronized String getHash(@NonNull String name) {
+        return names.get(name);
+    }
+
+    /**
+     * <p>Remove a name. The blob stays until {@link #collectGarbage} when no other name
+     * points to it.</p>
+     *
+     * @param name the logical name, not null
+     * @return true if the name was stored
+     */
+    public synchronized boolean remove(@NonNull String name) throws IOException {
+        String hash = names.get(name);
+        if (hash == null) return false;
+        appendIndex(encodeRecord(UNLINK, name, null));
+        names.remove(name);
+        release(hash);
+        compactIfRedundant();
+        return true;
+    }
+
+    /**
+     * <p>Delete blobs no name points to, including blobs left by a crash</p>
+     *
+     * @return number of bytes freed
+     */
+    @WorkerThread
+    public synchronized long collectGarbage() {
+        long freed = 0;
+        Iterator<Map.Entry<String, Integer>> iterator = references.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Integer> entry = iterator.next();
+            if (entry.getValue() > 0) continue;
+            iterator.remove();
+            freed += delete(getBlobFile(entry.getKey()));
+        }
+
+        File[] shards = objects.listFiles();
+        if (shards == null) return freed;
+        for (File shard : shards) {
+            File[] blobs = shard.listFiles();
+            if (blobs == null) continue;
+            for (File blob : blobs) {
+                if (!references.containsKey(shard.getName() + blob.getName())) {
+                    freed += delete(blob);
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            shard.delete(); // only succeeds when empty
+        }
+        return freed;
+    }
+
+    /**
+     * @return number of stored names
+     */
+    public synchronized int getNameCount() {
+        return names.size();
+    }
+
+    /**
+     * @return number of distinct blobs, including blobs waiting for garbage collection
+     */
+    public synchronized int getBlobCount() {
+        return references.size();
+    }
+
+    /**
+     * @return number of puts whose content was already stored
+     */
+    public synchronized int getDeduplicatedCount() {
+        return deduplicatedCount;
+    }
+
+    /**
+     * @return bytes not written thanks to deduplication
+     */
+    public synchronized long getDeduplicatedBytes() {
+        return deduplicatedBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+    }
+
+    private File getBlobFile(String hash) {
+        return new File(new File(objects, hash.substring(0, 2)), hash.substring(2));
+    }
+
+    private synchronized File newTemporaryFile() {
+        return new File(tmp, Thread.currentThread().getId() + "-" + (tmpCount++));
+    }
+
+    /**
+     * Copy a stream to a synced temporary file, the copied bytes are fed to the digest
+     */
+    private File writeTemporary(InputStream in, MessageDigest digest) throws IOException {
+        File temporary = newTemporaryFile();
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, count);
+                out.write(buffer, 0, count);
+            }
+            out.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            FileUtils.closeQuietly(out);
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            throw e;
+        }
+        out.close();
+        return temporary;
+    }
+
+    /**
+     * Move a synced temporary file into place unless the blob exists, then name it
+     */
+    private void commit(String name, String hash, File temporary) throws IOException {
+        synchronized (this) {
+            File blob = getBlobFile(hash);
+            if (blob.isFile()) {
+                deduplicatedCount++;
+                deduplicatedBytes += temporary.length();
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+            } else {
+                File shard = blob.getParentFile();
+                if (!shard.isDirectory() && !shard.mkdirs() || !temporary.renameTo(blob)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    temporary.delete();
+                    throw new IOException("Can not store blob " + hash);
+                }
+            }
+            bind(name, hash);
+        }
+    }
+
+    /**
+     * The record is written before the maps change, a failed write leaves both as they were
+     */
+    private void bind(String name, String hash) throws IOException {
+        String previous = names.get(name);
+        if (hash.equals(previous)) return;
+        appendIndex(encodeRecord(LINK, name, hash));
+        names.put(name, hash);
+        if (previous != null) release(previous);
+        Integer count = references.get(hash);
+        references.put(hash, count == null ? 1 : count + 1);
+        compactIfRedundant();
+    }
+
+    private void release(String hash) {
+        Integer count = references.get(hash);
+        if (count != null) references.put(hash, count - 1);
+    }
+
+    private static long delete(File file) {
+        long length = file.length();
+        return file.delete() ? length : 0;
+    }
+
+    private void readIndex() throws IOException {
+        File indexFile = new File(directory, INDEX_FILE);
+        if (!indexFile.isFile()) return;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        byte[] digest = new byte[DIGEST_LENGTH];
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return;
+            while (true) {
+                byte op = in.readByte();
+                String name = in.readUTF();
+                if (op == LINK) {
+                    in.readFully(digest);
+                    names.put(name, EncryptionUtils.toHex(digest));
+                } else if (op == UNLINK) {
+                    names.remove(name);
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // a record cut short by a crash ends the index
+        } finally {
+            in.close();
+        }
+
+        // names whose blob is gone are dropped, counts are derived from the names
+        Iterator<Map.Entry<String, String>> iterator = names.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            if (!getBlobFile(entry.getValue()).isFile()) {
+                iterator.remove();
+                continue;
+            }
+            Integer count = references.get(entry.getValue());
+            references.put(entry.getValue(), count == null ? 1 : count + 1);
+        }
+    }
+
+    private void deleteTemporaryFiles() {
+        File[] files = tmp.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private void rewriteIndex() throws IOException {
+        if (index != null) index.close();
+
+        File tmpIndex = new File(directory, INDEX_FILE_TMP);
+        FileOutputStream fileStream = new FileOutputStream(tmpIndex);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<String, String> entry : names.entrySet()) {
+                out.write(encodeRecord(LINK, entry.getKey(), entry.getValue()));
+            }
+            out.flush();
+            fileStream.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmpIndex.renameTo(new File(directory, INDEX_FILE))) {
+            throw new IOException("Can not replace blob index in " + directory);
+        }
+
+        index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(directory, INDEX_FILE), true)));
+        redundantOpCount = 0;
+    }
+
+    /**
+     * Write a whole record, a write that fails midway is cut off by rewriting the index
+     */
+    private void appendIndex(byte[] record) throws IOException {
+        if (index == null) throw new IllegalStateException("store is closed");
+        try {
+            index.write(record);
+            index.flush();
+        } catch (IOException e) {
+            try {
+                rewriteIndex();
+            } catch (IOException ignored) {
+                // the original failure is reported
+            }
+            throw e;
+        }
+        redundantOpCount++;
+    }
+
+    private void compactIfRedundant() throws IOException {
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && redundantOpCount >= names.size()) {
+            rewriteIndex();
+        }
+    }
+
+    private static byte[] encodeRecord(byte op, String name, @Nullable String hash) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 + 2 + name.length() + DIGEST_LENGTH);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(op);
+        out.writeUTF(name);
+        if (hash != null) {
+            for (int i = 0; i < DIGEST_LENGTH; i++) {
+                out.writeByte(Character.digit(hash.charAt(i * 2), 16) << 4
+                        | Character.digit(hash.charAt(i * 2 + 1), 16));
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    private static void checkName(String name) {
+        long length = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            length += c >= 0x01 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+        }
+        if (length > MAX_NAME_UTF_LENGTH) {
+            throw new IllegalArgumentException("Name takes " + length + " bytes, at most "
+                    + MAX_NAME_UTF_LENGTH + " are stored");
+        }
+    }
+}
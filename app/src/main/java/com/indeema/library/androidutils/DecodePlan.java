@@ -0,0 +1,183 @@
+package com.indeema.library.androidutils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Decode options chosen for a target size and a memory budget.
+ * <p>
+ * The sample size does the coarse power of two reduction inside the decoder, and
+ * {@code inDensity}/{@code inTargetDensity} scale the rest of the way to the exact
+ * target size. The estimated allocation is known before anything is decoded, so a
+ * caller can refuse the image or ask for less instead of running out of memory.
+ */
+
+public class DecodePlan {
+
+    private static final String MIME_JPEG = "image/jpeg";
+
+    private final int sampleSize;
+    private final int sampledWidth;
+    private final int width;
+    private final int height;
+    private final Bitmap.Config config;
+    private final boolean scaled;
+    private final long estimatedBytes;
+    private final long peakBytes;
+    private final boolean exact;
+
+    private DecodePlan(int sampleSize, int sampledWidth, int width, int height, Bitmap.Config config,
+                       boolean scaled, long estimatedBytes, long peakBytes, boolean exact) {
+        this.sampleSize = sampleSize;
+        this.sampledWidth = sampledWidth;
+        this.width = width;
+        this.height = height;
+        this.config = config;
+        this.scaled = scaled;
+        this.estimatedBytes = estimatedBytes;
+        this.peakBytes = peakBytes;
+        this.exact = exact;
+    }
+
+    /**
+     * <p>Plan a decode that fits the image inside the required size keeping its aspect ratio.
+     * When the exact size does not fit the budget the plan falls back to the sampled size
+     * only, then to bigger sample sizes.</p>
+     *
+     * @param bounds        options filled by a bounds decode, not altered, not null
+     * @param reqWidth      the the required width.
+     * @param reqHeight     the the required height.
+     * @param budgetBytes   maximum bytes the decode may allocate at once
+     * @param allowHardware use {@link Bitmap.Config#HARDWARE} where available, the result is immutable
+     * @return plan of the decode
+     */
+    public static DecodePlan create(@NonNull BitmapFactory.Options bounds,
+                                    int reqWidth,
+                                    int reqHeight,
+                                    long budgetBytes,
+                                    boolean allowHardware) {
+        int sourceWidth = Math.max(1, bounds.outWidth);
+        int sourceHeight = Math.max(1, bounds.outHeight);
+
+        float scale = Math.min(1f, Math.min((float) reqWidth / sourceWidth, (float) reqHeight / sourceHeight));
+        int targetWidth = Math.max(1, Math.round(sourceWidth * scale));
+        int targetHeight = Math.max(1, Math.round(sourceHeight * scale));
+
+        Bitmap.Config config = chooseConfig(bounds.outMimeType, allowHardware);
+        int bytesPerPixel = bytesPerPixel(config);
+
+        // Largest power of two which still decodes at least the target size
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= targetWidth
+                && sourceHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+
+        int sampledWidth = sourceWidth / sampleSize;
+        int sampledHeight = sourceHeight / sampleSize;
+        long sampledBytes = (long) sampledWidth * sampledHeight * bytesPerPixel;
+        long targetBytes = (long) targetWidth * targetHeight * bytesPerPixel;
+
+        boolean needsScale = sampledWidth != targetWidth;
+        long peak = needsScale ? sampledBytes + targetBytes : sampledBytes;
+        if (peak <= budgetBytes) {
+            return new DecodePlan(sampleSize, sampledWidth, targetWidth, targetHeight, config,
+                    needsScale, targetBytes, peak, true);
+        }
+
+        // Drop the exact scale, the decoder then allocates the sampled bitmap only
+        while (sampledBytes > budgetBytes && sampledWidth > 1 && sampledHeight > 1) {
+            sampleSize *= 2;
+            sampledWidth = sourceWidth / sampleSize;
+            sampledHeight = sourceHeight / sampleSize;
+            sampledBytes = (long) sampledWidth * sampledHeight * bytesPerPixel;
+        }
+        return new DecodePlan(sampleSize, sampledWidth, sampledWidth, sampledHeight, config,
+                false, sampledBytes, sampledBytes, false);
+    }
+
+    /**
+     * <p>Set the planned options for the full decode</p>
+     *
+     * @param options options to decode with, altered, not null
+     * @return the same options
+     */
+    public BitmapFactory.Options applyTo(@NonNull BitmapFactory.Options options) {
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        options.inScaled = scaled;
+        if (scaled) {
+            // sampled width * target density / density gives the exact target width
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = width;
+        } else {
+            options.inDensity = 0;
+            options.inTargetDensity = 0;
+        }
+        return options;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Bitmap.Config getConfig() {
+        return config;
+    }
+
+    /**
+     * @return bytes of the decoded bitmap
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * @return bytes allocated at once while decoding, includes the sampled intermediate when scaling
+     */
+    public long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * @return true if the plan gives the required size, false if it was reduced to fit the budget
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    private static Bitmap.Config chooseConfig(@Nullable String mimeType, boolean allowHardware) {
+        if (allowHardware && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return Bitmap.Config.HARDWARE;
+        }
+        // JPEG has no alpha channel, half the memory at no visible cost for photos
+        return MIME_JPEG.equals(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case RGBA_F16:
+                return 8;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case ALPHA_8:
+                return 1;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Size bounded LRU cache of files in a directory.
+ * <p>
+ * Every change is appended to a journal, so the access order survives process death.
+ * Entries are written to a temporary file, synced and renamed into place, so a crash
+ * in the middle of a write never leaves a torn entry behind. A journal line cut short
+ * by a crash is ignored when the cache is opened again.
+ */
+
+public class DiskCache implements Closeable {
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String MAGIC = "indeema.DiskCache";
+    private static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final Pattern KEY_PATTERN = Pattern.compile("[a-z0-9_-]{1,120}");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Journal lines that do not describe a live entry before the journal is compacted
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    public interface EntryWriter {
+        void write(@NonNull OutputStream out) throws IOException;
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(0, 0.75f, true);
+
+    private Writer journal;
+    private long size;
+    private int redundantOpCount;
+
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    private DiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * <p>Open the cache in the directory, creating it if needed</p>
+     *
+     * @param directory the cache directory, used exclusively by this cache, not null
+     * @param maxBytes  maximum byte count of all entries
+     * @return opened cache
+     * @throws IOException when the directory can not be created or the journal written
+     */
+    public static DiskCache open(@NonNull File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create cache directory " + directory);
+        }
+        DiskCache cache = new DiskCache(directory, maxBytes);
+        synchronized (cache) {
+            cache.readJournal();
+            cache.deleteOrphans();
+            cache.rebuildJournal();
+            cache.trimToSize();
+        }
+        return cache;
+    }
+
+    /**
+     * <p>Get the file of an entry and mark it as most recently used</p>
+     *
+     * @param key the entry key, [a-z0-9_-]{1,120}
+     * @return file with entry content or null if there is no such entry
+     */
+    @Nullable
+    public synchronized File get(@NonNull String key) throws IOException {
+        checkKey(key);
+        if (entries.get(key) == null) {
+            missCount++;
+            return null;
+        }
+        File file = new File(directory, key);
+        if (!file.isFile()) {
+            entries.remove(key);
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        appendJournal(READ, key);
+        return file;
+    }
+
+    /**
+     * <p>Write an entry, replacing the previous content. The new content becomes
+     * visible only once it is completely written and synced.</p>
+     *
+     * @param key    the entry key, [a-z0-9_-]{1,120}
+     * @param writer the writer of entry content
+     * @throws IOException when the content can not be written, the old content is kept
+     */
+    public void put(@NonNull String key, @NonNull EntryWriter writer) throws IOException {
+        checkKey(key);
+        File tmp = new File(directory, key + TMP_SUFFIX + Thread.currentThread().getId());
+        FileOutputStream fileStream = new FileOutputStream(tmp);
+        try {
+            OutputStream out = new BufferedOutputStream(fileStream);
+            writer.write(out);
+            out.flush();
+            fileStream.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            fileStream.close();
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw e;
+        }
+        fileStream.close();
+
+        synchronized (this) {
+            File file = new File(directory, key);
+            if (!tmp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+                throw new IOException("Can not commit cache entry " + key);
+            }
+            Long previous = entries.put(key, file.length());
+            if (previous != null) size -= previous;
+            size += file.length();
+            appendJournal(CLEAN, key);
+            trimToSize();
+        }
+    }
+
+    /**
+     * <p>Remove an entry</p>
+     *
+     * @param key the entry key
+     * @return true if the entry existed
+     */
+    public synchronized boolean remove(@NonNull String key) throws IOException {
+        checkKey(key);
+        Long length = entries.remove(key);
+        if (length == null) return false;
+        deleteEntry(key, length);
+        return true;
+    }
+
+    /**
+     * @return byte count of all entries
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private void trimToSize() throws IOException {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            deleteEntry(eldest.getKey(), eldest.getValue());
+            evictionCount++;
+        }
+    }
+
+    private void deleteEntry(String key, long length) throws IOException {
+        size -= length;
+        //noinspection ResultOfMethodCallIgnored
+        new File(directory, key).delete();
+        appendJournal(REMOVE, key);
+    }
+
+    private void readJournal() throws IOException {
+        File journalFile = new File(directory, JOURNAL_FILE);
+        if (!journalFile.isFile()) return;
+
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journalFile), UTF_8));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) return;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space < 0) continue;
+                String op = line.substring(0, space);
+                String key = line.substring(space + 1);
+                // a line cut short by a crash leaves a key without a file, dropped below
+                if (!KEY_PATTERN.matcher(key).matches()) continue;
+                if (REMOVE.equals(op)) {
+                    entries.remove(key);
+                } else if (CLEAN.equals(op) || READ.equals(op) && entries.containsKey(key)) {
+                    entries.put(key, 0L);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void deleteOrphans() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            File file = new File(directory, entry.getKey());
+            if (file.isFile()) {
+                entry.setValue(file.length());
+                size += file.length();
+            } else {
+                iterator.remove();
+            }
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.equals(JOURNAL_FILE) && !entries.containsKey(name)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    private void rebuildJournal() throws IOException {
+        if (journal != null) journal.close();
+
+        File tmp = new File(directory, JOURNAL_FILE_TMP);
+        FileOutputStream fileStream = new FileOutputStream(tmp);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(fileStream, UTF_8));
+        try {
+            writer.write(MAGIC + "\n" + VERSION + "\n");
+            for (String key : entries.keySet()) {
+                writer.write(CLEAN + ' ' + key + '\n');
+            }
+            writer.flush();
+            fileStream.getFD().sync();
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(new File(directory, JOURNAL_FILE))) {
+            throw new IOException("Can not replace cache journal in " + directory);
+        }
+
+        journal = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(directory, JOURNAL_FILE), true), UTF_8));
+        redundantOpCount = 0;
+    }
+
+    private void appendJournal(String op, String key) throws IOException {
+        if (journal == null) throw new IllegalStateException("cache is closed");
+        journal.write(op + ' ' + key + '\n');
+        journal.flush();
+        if (!CLEAN.equals(op)) redundantOpCount++;
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && redundantOpCount >= entries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private static void checkKey(String key) {
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("keys must match [a-z0-9_-]{1,120}: \"" + key + "\"");
+        }
+    }
+}
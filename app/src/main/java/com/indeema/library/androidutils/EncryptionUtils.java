@@ -1,5 +1,13 @@
 package com.indeema.library.androidutils;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -9,6 +17,10 @@ import java.security.NoSuchAlgorithmException;
 
 public class EncryptionUtils {
 
+    private static final String SHA_256 = "SHA-256";
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     public static final String convertToMD5(final String s) {
         final String MD5 = "MD5";
         try {
@@ -33,4 +45,52 @@ public class EncryptionUtils {
         return "";
     }
 
+    /**
+     * <p>SHA-256 digest of the content of a file, read through a direct buffer</p>
+     *
+     * @param file the file, not null
+     * @return 32 bytes digest
+     * @throws IOException when the file can not be read
+     */
+    @WorkerThread
+    public static byte[] sha256(@NonNull File file) throws IOException {
+        MessageDigest digest = newSha256();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return new SHA-256 digest, every platform has one
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance(SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return lower case hex digits of the bytes
+     */
+    public static String toHex(@NonNull byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
 }
@@ -0,0 +1,447 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Copies files and streams through NIO channels.
+ * <p>
+ * File to file copies are done by the kernel with {@link FileChannel#transferTo}, without
+ * passing the data through the Java heap. Other streams are copied through buffers
+ * taken from a pool, so repeated copies do not allocate. Large copies can be made
+ * resumable with {@link #copyResumable}, which survives process death.
+ */
+
+public class FileCopier {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Bytes moved per transferTo call, progress is reported between calls
+     */
+    public static final long DEFAULT_TRANSFER_CHUNK = 8 * 1024 * 1024;
+
+    /**
+     * Bytes per checksummed chunk of a resumable copy
+     */
+    public static final int DEFAULT_RESUMABLE_CHUNK = 4 * 1024 * 1024;
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String JOURNAL_SUFFIX = ".copyjournal";
+    private static final int JOURNAL_MAGIC = 0x436f7079; // "Copy"
+    private static final int JOURNAL_VERSION = 1;
+    private static final int JOURNAL_HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+    private static final int JOURNAL_RECORD_SIZE = 4 + 8;
+
+    public interface ProgressListener {
+        /**
+         * @param copied bytes copied so far
+         * @param total  bytes to copy or -1 when the size is unknown
+         * @return false to cancel the copy
+         */
+        boolean onProgress(long copied, long total);
+    }
+
+    private final int bufferSize;
+    private final long transferChunk;
+    private final ConcurrentLinkedQueue<byte[]> bufferPool = new ConcurrentLinkedQueue<>();
+
+    public FileCopier() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_TRANSFER_CHUNK);
+    }
+
+    /**
+     * @param bufferSize    size of the buffers used for streams
+     * @param transferChunk bytes moved per kernel transfer of a file copy
+     */
+    public FileCopier(int bufferSize, long transferChunk) {
+        this.bufferSize = bufferSize;
+        this.transferChunk = transferChunk;
+    }
+
+    /**
+     * <p>Copy a file, replacing the target. A cancelled copy deletes the partial target.</p>
+     *
+     * @param source   the file to copy, not null
+     * @param target   the copy, not null
+     * @param listener progress listener, may be null
+     * @return true when copied, false when cancelled by the listener
+     * @throws IOException when reading or writing fails
+     */
+    @WorkerThread
+    public boolean copy(@NonNull File source, @NonNull File target, @Nullable ProgressListener listener)
+            throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        FileOutputStream out = null;
+        boolean completed = false;
+        try {
+            out = new FileOutputStream(target);
+            completed = transfer(in.getChannel(), out.getChannel(), listener);
+            return completed;
+        } finally {
+            FileUtils.closeQuietly(in);
+            FileUtils.closeQuietly(out);
+            if (!completed) {
+                //noinspection ResultOfMethodCallIgnored
+                target.delete();
+            }
+        }
+    }
+
+    /**
+     * <p>Copy a stream to another. Streams of regular files are copied by the kernel, other
+     * streams, pipes among them, through a pooled buffer. Streams are not closed.</p>
+     *
+     * @param in       the source stream, not null
+     * @param out      the target stream, not null
+     * @param total    bytes expected for progress or -1 when unknown
+     * @param listener progress listener, may be null
+     * @return true when copied, false when cancelled by the listener
+     * @throws IOException when reading or writing fails
+     */
+    @WorkerThread
+    public boolean copy(@NonNull InputStream in, @NonNull OutputStream out, long total,
+                        @Nullable ProgressListener listener) throws IOException {
+        if (in instanceof FileInputStream && out instanceof FileOutputStream) {
+            FileChannel source = ((FileInputStream) in).getChannel();
+            if (isRegularFile(source)) {
+                return transfer(source, ((FileOutputStream) out).getChannel(), listener);
+            }
+        }
+        byte[] buffer = obtainBuffer();
+        try {
+            long copied = 0;
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+                copied += count;
+                if (listener != null && !listener.onProgress(copied, total)) return false;
+            }
+            return true;
+        } finally {
+            recycleBuffer(buffer);
+        }
+    }
+
+    /**
+     * <p>Copy many files at once</p>
+     *
+     * @param sources  files to copy, not null
+     * @param targets  copies, in the order of sources, not null
+     * @param threads  number of files copied at the same time
+     * @return number of files copied
+     * @throws IOException with the first failure, the other copies are still finished
+     */
+    @WorkerThread
+    public int copyAll(@NonNull List<File> sources, @NonNull List<File> targets, int threads)
+            throws IOException, InterruptedException {
+        if (sources.size() != targets.size()) {
+            throw new IllegalArgumentException("Every source needs a target");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Boolean>> futures = new ArrayList<>(sources.size());
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                final File source = sources.get(i);
+                final File target = targets.get(i);
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        return copy(source, target, null);
+                    }
+                }));
+            }
+
+            int copied = 0;
+            IOException failure = null;
+            for (Future<Boolean> future : futures) {
+                try {
+                    if (future.get()) copied++;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) throw failure;
+            return copied;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * <p>Copy a file so that an interrupted copy continues where it stopped. Chunks are
+     * written to {@code target.part} by several threads and every finished chunk is
+     * recorded with its CRC32 in a {@code target.copyjournal} sidecar. A later call with
+     * the same files checks the recorded chunks against the partial target and copies
+     * only the missing or damaged ones. The journal is dropped when the source changed.</p>
+     *
+     * @param source    the file to copy, not null
+     * @param target    the copy, replaced once complete, not null
+     * @param chunkSize bytes per chunk, e.g. {@link #DEFAULT_RESUMABLE_CHUNK}
+     * @param threads   number of chunks copied at the same time
+     * @param listener  progress listener called from the copying threads, may be null
+     * @return true when copied, false when cancelled, the partial copy is kept for a resume
+     * @throws IOException when reading or writing fails, the partial copy is kept
+     */
+    @WorkerThread
+    public boolean copyResumable(@NonNull File source, @NonNull File target, final int chunkSize, int threads,
+                                 @Nullable final ProgressListener listener) throws IOException, InterruptedException {
+        if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be positive");
+        final File part = new File(target.getPath() + PART_SUFFIX);
+        File journalFile = new File(target.getPath() + JOURNAL_SUFFIX);
+        final long size = source.length();
+        final int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+
+        final RandomAccessFile in = new RandomAccessFile(source, "r");
+        final RandomAccessFile out = new RandomAccessFile(part, "rw");
+        FileOutputStream journal = null;
+        try {
+            boolean[] done = new boolean[chunkCount];
+            long[] checksums = new long[chunkCount];
+            long verified = 0;
+            long journalLength = readCopyJournal(journalFile, source, chunkSize, done, checksums);
+            if (journalLength >= 0) {
+                verified = verifyChunks(out.getChannel(), done, checksums, size, chunkSize);
+            } else {
+                out.setLength(0);
+                writeCopyJournalHeader(journalFile, source, chunkSize);
+                journalLength = JOURNAL_HEADER_SIZE;
+            }
+            journal = new FileOutputStream(journalFile, true);
+            // records appended after a torn one would never be read
+            journal.getChannel().truncate(journalLength);
+
+            final List<Integer> pending = new ArrayList<>();
+            for (int i = 0; i < chunkCount; i++) {
+                if (!done[i]) pending.add(i);
+            }
+            final AtomicLong copied = new AtomicLong(verified);
+            final AtomicInteger next = new AtomicInteger();
+            final AtomicBoolean cancelled = new AtomicBoolean();
+            final FileOutputStream journalStream = journal;
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, pending.size())));
+            List<Future<Void>> futures = new ArrayList<>();
+            try {
+                for (int t = 0; t < Math.max(1, threads); t++) {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            byte[] chunk = new byte[chunkSize];
+                            CRC32 crc = new CRC32();
+                            int index;
+                            while (!cancelled.get() && (index = next.getAndIncrement()) < pending.size()) {
+                                int chunkIndex = pending.get(index);
+                                long position = (long) chunkIndex * chunkSize;
+                                int length = (int) Math.min(chunkSize, size - position);
+                                readFully(in.getChannel(), ByteBuffer.wrap(chunk, 0, length), position);
+                                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+                                while (buffer.hasRemaining()) {
+                                    out.getChannel().write(buffer, position + buffer.position());
+                                }
+                                crc.reset();
+                                crc.update(chunk, 0, length);
+                                appendCopyJournal(journalStream, chunkIndex, crc.getValue());
+                                long total = copied.addAndGet(length);
+                                if (listener != null && !listener.onProgress(total, size)) cancelled.set(true);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        cancelled.set(true);
+                        throw e.getCause() instanceof IOException
+                                ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            if (cancelled.get()) return false;
+
+            out.getChannel().force(true);
+        } finally {
+            FileUtils.closeQuietly(journal);
+            FileUtils.closeQuietly(in);
+            FileUtils.closeQuietly(out);
+        }
+
+        if (!part.renameTo(target)) {
+            throw new IOException("Can not rename " + part + " to " + target);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        journalFile.delete();
+        return true;
+    }
+
+    /**
+     * Read the chunks recorded in a copy journal, a later record of a chunk wins
+     *
+     * @return length of the valid part of the journal, -1 when there is no journal for
+     * this source and chunk size
+     */
+    private static long readCopyJournal(File journalFile, File source, int chunkSize,
+                                        boolean[] done, long[] checksums) throws IOException {
+        if (!journalFile.isFile()) return -1;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        try {
+            if (in.readInt() != JOURNAL_MAGIC || in.readInt() != JOURNAL_VERSION
+                    || in.readLong() != source.length() || in.readLong() != source.lastModified()
+                    || in.readInt() != chunkSize) {
+                FileUtils.closeQuietly(in);
+                return -1;
+            }
+        } catch (EOFException e) {
+            FileUtils.closeQuietly(in);
+            return -1;
+        }
+        long length = JOURNAL_HEADER_SIZE;
+        try {
+            while (true) {
+                int index = in.readInt();
+                long checksum = in.readLong();
+                if (index < 0 || index >= done.length) break;
+                done[index] = true;
+                checksums[index] = checksum;
+                length += JOURNAL_RECORD_SIZE;
+            }
+        } catch (EOFException e) {
+            // a record cut short by process death ends the journal
+        } finally {
+            in.close();
+        }
+        return length;
+    }
+
+    /**
+     * Check recorded chunks against the partial copy, damaged chunks are marked as not done
+     *
+     * @return bytes of the chunks that are intact
+     */
+    private static long verifyChunks(FileChannel part, boolean[] done, long[] checksums, long size, int chunkSize)
+            throws IOException {
+        byte[] chunk = new byte[chunkSize];
+        CRC32 crc = new CRC32();
+        long partSize = part.size();
+        long verified = 0;
+        for (int i = 0; i < done.length; i++) {
+            if (!done[i]) continue;
+            long position = (long) i * chunkSize;
+            int length = (int) Math.min(chunkSize, size - position);
+            done[i] = false;
+            if (position + length > partSize) continue;
+            readFully(part, ByteBuffer.wrap(chunk, 0, length), position);
+            crc.reset();
+            crc.update(chunk, 0, length);
+            if (crc.getValue() == checksums[i]) {
+                done[i] = true;
+                verified += length;
+            }
+        }
+        return verified;
+    }
+
+    private static void writeCopyJournalHeader(File journalFile, File source, int chunkSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC).putInt(JOURNAL_VERSION)
+                .putLong(source.length()).putLong(source.lastModified()).putInt(chunkSize);
+        FileOutputStream out = new FileOutputStream(journalFile);
+        try {
+            out.write(header.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * One write per record, so a record is either whole or cut at the end of the file
+     */
+    private static void appendCopyJournal(FileOutputStream journal, int chunkIndex, long checksum)
+            throws IOException {
+        byte[] record = ByteBuffer.allocate(JOURNAL_RECORD_SIZE).putInt(chunkIndex).putLong(checksum).array();
+        synchronized (journal) {
+            journal.write(record);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count < 0) throw new EOFException("Unexpected end of file at " + position);
+        }
+    }
+
+    private boolean transfer(FileChannel source, FileChannel target, @Nullable ProgressListener listener)
+            throws IOException {
+        long size = source.size();
+        long position = source.position();
+        long copied = 0;
+        while (position < size) {
+            long count = source.transferTo(position, Math.min(transferChunk, size - position), target);
+            if (count <= 0) {
+                throw new EOFException("Copied " + position + " of " + size + " bytes, the source shrank");
+            }
+            position += count;
+            copied += count;
+            if (listener != null && !listener.onProgress(copied, size)) return false;
+        }
+        source.position(position);
+        return true;
+    }
+
+    /**
+     * Pipes behind a file stream can not be transferred by position, their position throws
+     * and their size is 0, as is the size of many files in /proc
+     */
+    private static boolean isRegularFile(FileChannel channel) {
+        try {
+            channel.position();
+            return channel.size() > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private byte[] obtainBuffer() {
+        byte[] buffer = bufferPool.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    private void recycleBuffer(byte[] buffer) {
+        bufferPool.offer(buffer);
+    }
+}
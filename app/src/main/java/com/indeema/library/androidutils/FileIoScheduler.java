@@ -0,0 +1,404 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs file operations off the calling thread in two lanes.
+ * <p>
+ * Reads run on a small pool, writes run one at a time in the order they were queued.
+ * A write to a file that already has a write waiting in the queue replaces it, so only
+ * the latest data is written and every caller is told when it is on disk. Each lane
+ * holds at most a fixed number of queued operations; when it is full {@link #read} and
+ * {@link #write} block the caller and {@link #tryRead} and {@link #tryWrite} refuse.
+ * Reads and writes are not ordered against each other. After {@link #shutdown} every
+ * call throws {@link RejectedExecutionException}.
+ */
+
+public class FileIoScheduler {
+
+    public static final int DEFAULT_READ_THREADS = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    public interface ReadOperation<T> {
+        T read(@NonNull File file) throws IOException;
+    }
+
+    public interface WriteOperation {
+        void write(@NonNull File file) throws IOException;
+    }
+
+    public interface Callback<T> {
+        /**
+         * @param file   the file of the operation
+         * @param result result of a read, null for writes and failures
+         * @param error  the failure or null when successful
+         */
+        void onComplete(@NonNull File file, @Nullable T result, @Nullable IOException error);
+    }
+
+    /**
+     * Queue wait and run time of the operations of a lane
+     */
+    public static final class Metrics {
+        private int completedCount;
+        private int failedCount;
+        private int coalescedCount;
+        private long waitTotalNanos;
+        private long waitMaxNanos;
+        private long runTotalNanos;
+        private long runMaxNanos;
+
+        public synchronized int getCompletedCount() {
+            return completedCount;
+        }
+
+        public synchronized int getFailedCount() {
+            return failedCount;
+        }
+
+        /**
+         * @return number of operations replaced by a later write to the same file
+         */
+        public synchronized int getCoalescedCount() {
+            return coalescedCount;
+        }
+
+        /**
+         * @return mean time operations waited in the queue, in milliseconds
+         */
+        public synchronized long getAverageWaitMillis() {
+            return completedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitTotalNanos / completedCount);
+        }
+
+        /**
+         * @return longest time an operation waited in the queue, in milliseconds
+         */
+        public synchronized long getMaxWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(waitMaxNanos);
+        }
+
+        /**
+         * @return mean time operations took to run, in milliseconds
+         */
+        public synchronized long getAverageRunMillis() {
+            return completedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(runTotalNanos / completedCount);
+        }
+
+        /**
+         * @return longest time an operation took to run, in milliseconds
+         */
+        public synchronized long getMaxRunMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(runMaxNanos);
+        }
+
+        synchronized void record(long waitNanos, long runNanos, boolean failed) {
+            completedCount++;
+            if (failed) failedCount++;
+            waitTotalNanos += waitNanos;
+            waitMaxNanos = Math.max(waitMaxNanos, waitNanos);
+            runTotalNanos += runNanos;
+            runMaxNanos = Math.max(runMaxNanos, runNanos);
+        }
+
+        synchronized void recordCoalesced() {
+            coalescedCount++;
+        }
+    }
+
+    private final ThreadPoolExecutor readExecutor;
+    private final ThreadPoolExecutor writeExecutor;
+    private final Semaphore readSlots;
+    private final Semaphore writeSlots;
+    private final Executor callbackExecutor;
+    private final Metrics readMetrics = new Metrics();
+    private final Metrics writeMetrics = new Metrics();
+    private final Map<File, WriteJob> queuedWrites = new HashMap<>();
+
+    public FileIoScheduler(@NonNull Executor callbackExecutor) {
+        this(DEFAULT_READ_THREADS, DEFAULT_QUEUE_CAPACITY, callbackExecutor);
+    }
+
+    /**
+     * @param readThreads      number of threads reading at the same time
+     * @param queueCapacity    operations each lane holds before callers are blocked
+     * @param callbackExecutor executor results are delivered on, e.g. {@link ImageDecodeService#MAIN_THREAD_EXECUTOR}
+     */
+    public FileIoScheduler(int readThreads, int queueCapacity, @NonNull Executor callbackExecutor) {
+        this.readExecutor = new ThreadPoolExecutor(readThreads, readThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new IoThreadFactory("FileRead-"));
+        this.readExecutor.allowCoreThreadTimeOut(true);
+        this.writeExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new IoThreadFactory("FileWrite-"));
+        this.writeExecutor.allowCoreThreadTimeOut(true);
+        this.readSlots = new Semaphore(queueCapacity);
+        this.writeSlots = new Semaphore(queueCapacity);
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * <p>Queue a read, blocks while the read lane is full</p>
+     *
+     * @param file      the file to read, not null
+     * @param operation reads the file on a pool thread, not null
+     * @param callback  receives the result on the callback executor, may be null
+     */
+    @WorkerThread
+    public <T> void read(@NonNull File file, @NonNull ReadOperation<T> operation,
+                         @Nullable Callback<T> callback) throws InterruptedException {
+        if (readExecutor.isShutdown()) throw new RejectedExecutionException("shut down");
+        readSlots.acquire();
+        enqueueRead(new ReadJob<>(file, operation, callback));
+    }
+
+    /**
+     * <p>Queue a read unless the read lane is full</p>
+     *
+     * @return false when the lane is full and nothing was queued
+     * @see #read
+     */
+    public <T> boolean tryRead(@NonNull File file, @NonNull ReadOperation<T> operation,
+                               @Nullable Callback<T> callback) {
+        if (readExecutor.isShutdown()) throw new RejectedExecutionException("shut down");
+        if (!readSlots.tryAcquire()) return false;
+        enqueueRead(new ReadJob<>(file, operation, callback));
+        return true;
+    }
+
+    /**
+     * <p>Queue a write, blocks while the write lane is full. A write replacing a queued
+     * write to the same file never blocks.</p>
+     *
+     * @param file      the file to write, not null
+     * @param operation writes the file on the write thread, not null
+     * @param callback  told when the latest write to the file is done, may be null
+     */
+    @WorkerThread
+    public void write(@NonNull File file, @NonNull WriteOperation operation,
+                      @Nullable Callback<Void> callback) throws InterruptedException {
+        File key = file.getAbsoluteFile();
+        if (coalesce(key, operation, callback)) return;
+        writeSlots.acquire();
+        enqueueWrite(key, operation, callback);
+    }
+
+    /**
+     * <p>Queue a write unless the write lane is full</p>
+     *
+     * @return false when the lane is full and nothing was queued
+     * @see #write
+     */
+    public boolean tryWrite(@NonNull File file, @NonNull WriteOperation operation,
+                            @Nullable Callback<Void> callback) {
+        File key = file.getAbsoluteFile();
+        if (coalesce(key, operation, callback)) return true;
+        if (!writeSlots.tryAcquire()) return false;
+        enqueueWrite(key, operation, callback);
+        return true;
+    }
+
+    /**
+     * <p>Queue an atomic text write, see {@link FileUtils#writeToFileAtomically}</p>
+     *
+     * @param data the text, must not change until the callback is called, not null
+     */
+    @WorkerThread
+    public void writeText(@NonNull File file, @NonNull final CharSequence data, @NonNull final Charset charset,
+                          @Nullable Callback<Void> callback) throws InterruptedException {
+        write(file, new WriteOperation() {
+            @Override
+            public void write(@NonNull File file) throws IOException {
+                FileUtils.writeToFileAtomically(file, data, charset);
+            }
+        }, callback);
+    }
+
+    /**
+     * @return number of reads waiting for a thread
+     */
+    public int getReadQueueDepth() {
+        return readExecutor.getQueue().size();
+    }
+
+    /**
+     * @return number of writes waiting for the write thread
+     */
+    public int getWriteQueueDepth() {
+        return writeExecutor.getQueue().size();
+    }
+
+    public Metrics getReadMetrics() {
+        return readMetrics;
+    }
+
+    public Metrics getWriteMetrics() {
+        return writeMetrics;
+    }
+
+    /**
+     * <p>Stop the threads once queued operations are done</p>
+     */
+    public void shutdown() {
+        readExecutor.shutdown();
+        writeExecutor.shutdown();
+    }
+
+    private void enqueueRead(ReadJob<?> job) {
+        try {
+            readExecutor.execute(job);
+        } catch (RejectedExecutionException e) {
+            // shut down while waiting for a slot
+            readSlots.release();
+            throw e;
+        }
+    }
+
+    private synchronized boolean coalesce(File file, WriteOperation operation, @Nullable Callback<Void> callback) {
+        if (writeExecutor.isShutdown()) throw new RejectedExecutionException("shut down");
+        WriteJob job = queuedWrites.get(file);
+        if (job == null) return false;
+        job.operation = operation;
+        if (callback != null) job.callbacks.add(callback);
+        writeMetrics.recordCoalesced();
+        return true;
+    }
+
+    private synchronized void enqueueWrite(File file, WriteOperation operation, @Nullable Callback<Void> callback) {
+        // another caller may have queued the file while this one waited for a slot
+        WriteJob job = queuedWrites.get(file);
+        if (job != null) {
+            job.operation = operation;
+            if (callback != null) job.callbacks.add(callback);
+            writeMetrics.recordCoalesced();
+            writeSlots.release();
+            return;
+        }
+        job = new WriteJob(file, operation, callback);
+        // queued under the lock so no write can join a job the executor refused
+        try {
+            writeExecutor.execute(job);
+        } catch (RejectedExecutionException e) {
+            writeSlots.release();
+            throw e;
+        }
+        queuedWrites.put(file, job);
+    }
+
+    private synchronized List<Callback<Void>> startWrite(WriteJob job) {
+        queuedWrites.remove(job.file);
+        return new ArrayList<>(job.callbacks);
+    }
+
+    private <T> void deliver(final List<Callback<T>> callbacks, final File file,
+                             @Nullable final T result, @Nullable final IOException error) {
+        if (callbacks.isEmpty()) return;
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback<T> callback : callbacks) {
+                    callback.onComplete(file, result, error);
+                }
+            }
+        });
+    }
+
+    private final class ReadJob<T> implements Runnable {
+        final File file;
+        final ReadOperation<T> operation;
+        final Callback<T> callback;
+        final long queuedAt = System.nanoTime();
+
+        ReadJob(File file, ReadOperation<T> operation, @Nullable Callback<T> callback) {
+            this.file = file;
+            this.operation = operation;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            readSlots.release();
+            long startedAt = System.nanoTime();
+            T result = null;
+            IOException error = null;
+            try {
+                result = operation.read(file);
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            }
+            readMetrics.record(startedAt - queuedAt, System.nanoTime() - startedAt, error != null);
+            List<Callback<T>> callbacks = new ArrayList<>(1);
+            if (callback != null) callbacks.add(callback);
+            deliver(callbacks, file, result, error);
+        }
+    }
+
+    private final class WriteJob implements Runnable {
+        final File file;
+        final List<Callback<Void>> callbacks = new ArrayList<>(1);
+        final long queuedAt = System.nanoTime();
+        WriteOperation operation;
+
+        WriteJob(File file, WriteOperation operation, @Nullable Callback<Void> callback) {
+            this.file = file;
+            this.operation = operation;
+            if (callback != null) callbacks.add(callback);
+        }
+
+        @Override
+        public void run() {
+            List<Callback<Void>> waiting;
+            WriteOperation latest;
+            synchronized (FileIoScheduler.this) {
+                waiting = startWrite(this);
+                latest = operation;
+            }
+            writeSlots.release();
+            long startedAt = System.nanoTime();
+            IOException error = null;
+            try {
+                latest.write(file);
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            }
+            writeMetrics.record(startedAt - queuedAt, System.nanoTime() - startedAt, error != null);
+            deliver(waiting, file, null, error);
+        }
+    }
+
+    private static final class IoThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        IoThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY + 1);
+            return thread;
+        }
+    }
+}
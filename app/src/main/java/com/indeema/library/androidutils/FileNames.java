@@ -0,0 +1,272 @@
+package com.indeema.library.androidutils;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * File name and path checks written as plain character scans.
+ * <p>
+ * Every method gives exactly the result of the regular expression or {@link Uri} based
+ * method of {@link FileUtils} it replaces, including the regex treatment of line
+ * terminators and supplementary characters, without compiling patterns or building
+ * objects for the common case. The array methods run a check over a whole directory
+ * listing at once.
+ */
+
+public final class FileNames {
+
+    private static final String[] IMAGE_EXTENSIONS = {"png", "jpg", "jpeg", "bmp"};
+    private static final String PDF_EXTENSION = "pdf";
+
+    private FileNames() {
+    }
+
+    /**
+     * <p>Remove the last extension of letters and digits, like replacing
+     * {@code \.\p{Alnum}+$}. A single line break at the end is kept.</p>
+     *
+     * @param fileName the name, not null
+     * @return the name without extension
+     */
+    @NonNull
+    public static String removeExtension(@NonNull CharSequence fileName) {
+        int length = fileName.length();
+        int end = length - trailingLineTerminator(fileName);
+        int start = end;
+        while (start > 0 && isAsciiAlphanumeric(fileName.charAt(start - 1))) {
+            start--;
+        }
+        if (start == end || start == 0 || fileName.charAt(start - 1) != '.') return fileName.toString();
+        StringBuilder result = new StringBuilder(length - (end - start + 1));
+        result.append(fileName, 0, start - 1).append(fileName, end, length);
+        return result.toString();
+    }
+
+    /**
+     * <p>Replace every character other than ASCII letters, digits, '.' and '-' with '_',
+     * like replacing {@code [^a-zA-Z0-9.\-]}. A surrogate pair is one character.</p>
+     *
+     * @param fileName the name, not null
+     * @return the name with legal characters only
+     */
+    @NonNull
+    public static String replaceIllegalCharacter(@NonNull CharSequence fileName) {
+        int length = fileName.length();
+        int first = 0;
+        while (first < length && isLegal(fileName.charAt(first))) {
+            first++;
+        }
+        if (first == length) return fileName.toString();
+
+        StringBuilder result = new StringBuilder(length);
+        result.append(fileName, 0, first);
+        for (int i = first; i < length; i++) {
+            char c = fileName.charAt(i);
+            if (isLegal(c)) {
+                result.append(c);
+                continue;
+            }
+            result.append('_');
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(fileName.charAt(i + 1))) {
+                i++;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * <p>Check for a png, jpg, jpeg or bmp extension in any case, like matching the lower
+     * cased path against {@code .*\.(?:png|jpg|jpeg|bmp)$}</p>
+     *
+     * @param filePath the path, not null
+     * @return true for an image path on a single line
+     */
+    public static boolean isImage(@NonNull CharSequence filePath) {
+        if (hasLineTerminator(filePath)) return false;
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (hasExtension(filePath, extension, true)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * <p>Check for a lower case pdf extension, like matching {@code .*\.(?:pdf)$}</p>
+     *
+     * @param filePath the path, not null
+     * @return true for a pdf path on a single line
+     */
+    public static boolean isPdf(@NonNull CharSequence filePath) {
+        return !hasLineTerminator(filePath) && hasExtension(filePath, PDF_EXTENSION, false);
+    }
+
+    /**
+     * <p>Get the last path segment the way {@link Uri#parse} and
+     * {@link Uri#getLastPathSegment} do. Only paths with escapes or an authority
+     * containing '\' go through {@link Uri}, where platform versions differ.</p>
+     *
+     * @param filePath a path or uri, not null
+     * @return the decoded last segment or null when there is none
+     */
+    @Nullable
+    public static String getFileName(@NonNull CharSequence filePath) {
+        int length = filePath.length();
+        int schemeEnd = indexOf(filePath, ':', 0, length);
+        if (schemeEnd >= 0 && (schemeEnd + 1 == length || filePath.charAt(schemeEnd + 1) != '/')) {
+            return null; // opaque uri, no path
+        }
+
+        int pathStart;
+        if (length > schemeEnd + 2 && filePath.charAt(schemeEnd + 1) == '/' && filePath.charAt(schemeEnd + 2) == '/') {
+            pathStart = schemeEnd + 3;
+            while (pathStart < length) {
+                char c = filePath.charAt(pathStart);
+                if (c == '?' || c == '#') return null;
+                if (c == '/') break;
+                if (c == '\\') return Uri.parse(filePath.toString()).getLastPathSegment();
+                pathStart++;
+            }
+        } else {
+            pathStart = schemeEnd + 1;
+        }
+        int pathEnd = pathStart;
+        while (pathEnd < length) {
+            char c = filePath.charAt(pathEnd);
+            if (c == '?' || c == '#') break;
+            pathEnd++;
+        }
+
+        // last non empty segment
+        int segmentEnd = pathEnd;
+        while (segmentEnd > pathStart && filePath.charAt(segmentEnd - 1) == '/') {
+            segmentEnd--;
+        }
+        if (segmentEnd == pathStart) return null;
+        int segmentStart = segmentEnd;
+        while (segmentStart > pathStart && filePath.charAt(segmentStart - 1) != '/') {
+            segmentStart--;
+        }
+
+        String segment = filePath.subSequence(segmentStart, segmentEnd).toString();
+        return segment.indexOf('%') < 0 ? segment : Uri.decode(segment);
+    }
+
+    /**
+     * <p>{@link #removeExtension} of every name</p>
+     *
+     * @param fileNames the names, not altered, not null
+     * @param out       receives the results at the same indices, at least as long as fileNames
+     */
+    public static void removeExtension(@NonNull CharSequence[] fileNames, @NonNull String[] out) {
+        for (int i = 0; i < fileNames.length; i++) {
+            out[i] = removeExtension(fileNames[i]);
+        }
+    }
+
+    /**
+     * <p>{@link #replaceIllegalCharacter} of every name</p>
+     *
+     * @param fileNames the names, not altered, not null
+     * @param out       receives the results at the same indices, at least as long as fileNames
+     */
+    public static void replaceIllegalCharacter(@NonNull CharSequence[] fileNames, @NonNull String[] out) {
+        for (int i = 0; i < fileNames.length; i++) {
+            out[i] = replaceIllegalCharacter(fileNames[i]);
+        }
+    }
+
+    /**
+     * <p>{@link #getFileName} of every path</p>
+     *
+     * @param filePaths the paths, not altered, not null
+     * @param out       receives the results at the same indices, at least as long as filePaths
+     */
+    public static void getFileName(@NonNull CharSequence[] filePaths, @NonNull String[] out) {
+        for (int i = 0; i < filePaths.length; i++) {
+            out[i] = getFileName(filePaths[i]);
+        }
+    }
+
+    /**
+     * <p>{@link #isImage} of every path</p>
+     *
+     * @param filePaths the paths, not altered, not null
+     * @param out       receives the results at the same indices, at least as long as filePaths
+     * @return number of images
+     */
+    public static int isImage(@NonNull CharSequence[] filePaths, @NonNull boolean[] out) {
+        int count = 0;
+        for (int i = 0; i < filePaths.length; i++) {
+            if (out[i] = isImage(filePaths[i])) count++;
+        }
+        return count;
+    }
+
+    /**
+     * <p>{@link #isPdf} of every path</p>
+     *
+     * @param filePaths the paths, not altered, not null
+     * @param out       receives the results at the same indices, at least as long as filePaths
+     * @return number of pdf files
+     */
+    public static int isPdf(@NonNull CharSequence[] filePaths, @NonNull boolean[] out) {
+        int count = 0;
+        for (int i = 0; i < filePaths.length; i++) {
+            if (out[i] = isPdf(filePaths[i])) count++;
+        }
+        return count;
+    }
+
+    private static boolean hasExtension(CharSequence path, String extension, boolean ignoreCase) {
+        int start = path.length() - extension.length();
+        if (start < 1 || path.charAt(start - 1) != '.') return false;
+        for (int i = 0; i < extension.length(); i++) {
+            char c = path.charAt(start + i);
+            // only ASCII letters lower case to ASCII letters in every locale
+            if (ignoreCase && c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            if (c != extension.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return length of the line terminator a regex $ may match before, 0 if there is none
+     */
+    private static int trailingLineTerminator(CharSequence s) {
+        int length = s.length();
+        if (length == 0) return 0;
+        char last = s.charAt(length - 1);
+        if (last == '\n') return length > 1 && s.charAt(length - 2) == '\r' ? 2 : 1;
+        return isLineTerminator(last) ? 1 : 0;
+    }
+
+    /**
+     * Regex '.' does not match line terminators
+     */
+    private static boolean hasLineTerminator(CharSequence s) {
+        for (int i = 0, length = s.length(); i < length; i++) {
+            if (isLineTerminator(s.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isAsciiAlphanumeric(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+    }
+
+    private static boolean isLegal(char c) {
+        return isAsciiAlphanumeric(c) || c == '.' || c == '-';
+    }
+
+    private static int indexOf(CharSequence s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+}
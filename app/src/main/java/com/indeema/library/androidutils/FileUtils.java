@@ -4,23 +4,40 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
+import android.util.Log;
 import android.webkit.MimeTypeMap;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Utility methods for working with files.
@@ -31,8 +48,35 @@ public class FileUtils {
 
     private final static String TAG = FileUtils.class.getSimpleName();
 
-    final private static String IMAGE_PATTERN = ".*\\.(?:png|jpg|jpeg|bmp)$";
-    final private static String PDF_PATTERN = ".*\\.(?:pdf)$";
+    private final static String TMP_SUFFIX = ".tmp";
+    private final static int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final static FileCopier COPIER = new FileCopier();
+    private final static ThreadLocal<TextEncoder> TEXT_ENCODER = new ThreadLocal<TextEncoder>() {
+        @Override
+        protected TextEncoder initialValue() {
+            return new TextEncoder();
+        }
+    };
+
+    /**
+     * Created on first use, so the plain Java helpers of this class also load off-device
+     */
+    private static final class AsyncSave {
+        static final ExecutorService WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+        static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    }
+
+    private static final class MimeDetection {
+        static final MimeDetector DETECTOR = new MimeDetector();
+    }
+
+    public interface OnFileSavedListener {
+        /**
+         * @param file saved file or null when unsuccessful
+         */
+        void onFileSaved(@Nullable File file);
+    }
 
     public FileUtils() {
     }
@@ -41,16 +85,15 @@ public class FileUtils {
      * Getting type-safe name for Image File by Uri
      */
     public static String getFileName(String filePath) {
-        Uri uri = Uri.parse(filePath);
-        return uri.getLastPathSegment();
+        return FileNames.getFileName(filePath);
     }
 
     public static boolean isImage(String filePath) {
-        return filePath.toLowerCase().matches(IMAGE_PATTERN);
+        return FileNames.isImage(filePath);
     }
 
     public static boolean isPdf(String filePath) {
-        return filePath.matches(PDF_PATTERN);
+        return FileNames.isPdf(filePath);
     }
 
     public static File saveBitmapToFolder(String directoryPath,
@@ -83,42 +126,270 @@ public class FileUtils {
     }
 
     public static File saveBitmapToFile(File file, Bitmap bmp, int quality) {
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        bmp.compress(Bitmap.CompressFormat.JPEG, quality, bytes);
+        return saveBitmapToFile(file, bmp, Bitmap.CompressFormat.JPEG, quality);
+    }
+
+    /**
+     * <p>Encode bitmap straight to a temporary file next to the target, sync it and
+     * rename it over the target, then sync the directory. A crash never leaves a
+     * partially written image at the target path and the encoded image is never held
+     * in memory.</p>
+     *
+     * @param file    the target file, replaced if it exists
+     * @param bmp     the bitmap, not altered, not null.
+     * @param format  format of the encoded image
+     * @param quality hint to the compressor, 0-100
+     * @return the target file or null when unsuccessful
+     */
+    @WorkerThread
+    public static File saveBitmapToFile(@NonNull File file,
+                                        @NonNull Bitmap bmp,
+                                        @NonNull Bitmap.CompressFormat format,
+                                        int quality) {
+        File tmp = null;
+        FileOutputStream stream = null;
         try {
-            FileOutputStream fo = new FileOutputStream(file);
-            fo.write(bytes.toByteArray());
-            fo.close();
+            tmp = createTemporary(file);
+            stream = new FileOutputStream(tmp);
+            FileChannel channel = stream.getChannel();
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE);
+            if (!bmp.compress(format, quality, out)) {
+                throw new IOException("Can not encode bitmap to " + format);
+            }
+            out.flush();
+            channel.force(true);
+            stream.close();
+            stream = null;
+            commitAtomically(tmp, file);
+            syncDirectory(file.getParentFile());
+            return file;
         } catch (IOException e) {
-            file = null;
+            Log.w(TAG, "Failed to save bitmap to " + file, e);
+            return null;
+        } finally {
+            closeQuietly(stream);
+            if (tmp != null && tmp.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+            }
         }
-        return file;
     }
 
+    /**
+     * <p>Save bitmap on the background write queue, writes are done one by one in
+     * the order they were requested</p>
+     *
+     * @param file     the target file, replaced if it exists
+     * @param bmp      the bitmap, must not be changed or recycled until the listener is called
+     * @param format   format of the encoded image
+     * @param quality  hint to the compressor, 0-100
+     * @param listener called on the main thread when done, may be null
+     */
+    public static void saveBitmapToFileAsync(@NonNull final File file,
+                                             @NonNull final Bitmap bmp,
+                                             @NonNull final Bitmap.CompressFormat format,
+                                             final int quality,
+                                             @Nullable final OnFileSavedListener listener) {
+        AsyncSave.WRITE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final File result = saveBitmapToFile(file, bmp, format, quality);
+                if (listener == null) return;
+                AsyncSave.MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onFileSaved(result);
+                    }
+                });
+            }
+        });
+    }
 
     public static void writeToFile(File file, String data) {
         try {
-            FileOutputStream stream = new FileOutputStream(file);
-            stream.write(data.getBytes());
+            writeToFileAtomically(file, data, Charset.defaultCharset());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * <p>Write text to a temporary file next to the target, sync it and rename it over
+     * the target. After a crash the target holds either the old or the new text, never
+     * a torn mix. The text is encoded in chunks through a direct buffer, so large text
+     * is never copied into a byte array.</p>
+     *
+     * @param file    the target file, replaced if it exists
+     * @param data    the text, not altered, not null
+     * @param charset charset of the file, not null
+     * @throws IOException when writing fails, the target is left unchanged
+     */
+    @WorkerThread
+    public static void writeToFileAtomically(@NonNull File file,
+                                             @NonNull CharSequence data,
+                                             @NonNull Charset charset) throws IOException {
+        commitAtomically(writeTemporary(file, data, charset), file);
+        syncDirectory(file.getParentFile());
+    }
+
+    /**
+     * Encode text to a synced temporary file next to the target, see {@link #createTemporary}
+     *
+     * @return the temporary file
+     */
+    static File writeTemporary(@NonNull File file, @NonNull CharSequence data, @NonNull Charset charset)
+            throws IOException {
+        File tmp = createTemporary(file);
+        FileOutputStream stream = null;
+        boolean written = false;
+        try {
+            stream = new FileOutputStream(tmp);
+            FileChannel channel = stream.getChannel();
+            TextEncoder encoder = TEXT_ENCODER.get();
+            encoder.encode(data, charset, channel);
+            channel.force(true);
+            written = true;
+            return tmp;
+        } finally {
+            closeQuietly(stream);
+            if (!written) {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Create an empty temporary file next to the target with a unique name, so concurrent
+     * writes of one target never share a temporary file
+     */
+    static File createTemporary(@NonNull File file) throws IOException {
+        File absolute = file.getAbsoluteFile();
+        return File.createTempFile("." + absolute.getName() + ".", TMP_SUFFIX, absolute.getParentFile());
+    }
+
+    /**
+     * Rename a synced temporary file over the target
+     */
+    static void commitAtomically(@NonNull File tmp, @NonNull File file) throws IOException {
+        if (!tmp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Can not rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Make renames in a directory durable, a no-op where directories can not be opened
+     */
+    static void syncDirectory(@Nullable File directory) {
+        if (directory == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // some file systems do not allow syncing directories
+        }
+    }
+
     public static void copyFile(InputStream in, OutputStream out) throws IOException {
-        byte[] buf = new byte[1024];
-        int len;
-        while ((len = in.read(buf)) > 0) {
-            out.write(buf, 0, len);
+        try {
+            COPIER.copy(in, out, -1, null);
+        } finally {
+            closeQuietly(in);
+            out.close();
+        }
+    }
+
+    /**
+     * <p>Copy a file, the data is moved by the kernel without passing the Java heap</p>
+     *
+     * @param source the file to copy, not null
+     * @param target the copy, replaced if it exists
+     * @throws IOException when reading or writing fails
+     */
+    @WorkerThread
+    public static void copyFile(@NonNull File source, @NonNull File target) throws IOException {
+        COPIER.copy(source, target, null);
+    }
+
+    /**
+     * <p>Copy a large file so that a copy interrupted by process death continues where
+     * it stopped when called again, see {@link FileCopier#copyResumable}</p>
+     *
+     * @param source the file to copy, not null
+     * @param target the copy, replaced once complete, not null
+     * @throws IOException when reading or writing fails, the partial copy is kept
+     */
+    @WorkerThread
+    public static void copyFileResumable(@NonNull File source, @NonNull File target)
+            throws IOException, InterruptedException {
+        COPIER.copyResumable(source, target, FileCopier.DEFAULT_RESUMABLE_CHUNK, 2, null);
+    }
+
+    /**
+     * <p>Zip the files of a directory, deflating on all cores, see
+     * {@link ParallelCompressor}. The target may be inside the directory, it is left out
+     * of the archive.</p>
+     *
+     * @param directory the directory, not null
+     * @param target    the zip file, replaced if it exists, not null
+     * @return number of zipped files
+     * @throws IOException when reading or writing fails
+     */
+    @WorkerThread
+    public static int zipDirectory(@NonNull File directory, @NonNull File target) throws IOException {
+        ParallelCompressor compressor = new ParallelCompressor(Runtime.getRuntime().availableProcessors());
+        try {
+            return compressor.zip(directory, target);
+        } finally {
+            compressor.close();
+        }
+    }
+
+    /**
+     * <p>Gzip a file, deflating on all cores, see {@link ParallelCompressor}</p>
+     *
+     * @param source the file, not null
+     * @param target the gzip file, replaced if it exists, not null
+     * @throws IOException when reading or writing fails
+     */
+    @WorkerThread
+    public static void gzipFile(@NonNull File source, @NonNull File target) throws IOException {
+        ParallelCompressor compressor = new ParallelCompressor(Runtime.getRuntime().availableProcessors());
+        try {
+            compressor.gzip(source, target);
+        } finally {
+            compressor.close();
+        }
+    }
+
+    /**
+     * <p>Read the lines of a text file through a memory mapping, without building a String
+     * per line. See {@link MappedLineReader}.</p>
+     *
+     * @param file    the text file, not null
+     * @param visitor receives every line, the line is only valid during the call
+     * @return number of lines visited
+     * @throws IOException when the file can not be read
+     */
+    @WorkerThread
+    public static long forEachLine(@NonNull File file, @NonNull MappedLineReader.LineVisitor visitor)
+            throws IOException {
+        MappedLineReader reader = MappedLineReader.open(file);
+        try {
+            return reader.forEachLine(visitor);
+        } finally {
+            reader.close();
         }
-        in.close();
-        out.close();
     }
 
     public static String removeExtension(String fileName) {
-        Pattern suffix = Pattern.compile("\\.\\p{Alnum}+$");
-        Matcher m = suffix.matcher(fileName);
-        return m.replaceAll("");
+        return FileNames.removeExtension(fileName);
     }
 
     public static String getMimeType(Context context, Uri uri) {
@@ -142,6 +413,19 @@ public class FileUtils {
         return type;
     }
 
+    /**
+     * <p>Get the type of a file or content uri from its first bytes, falling back to the
+     * extension. Results are cached until the file changes, see {@link MimeDetector}.</p>
+     *
+     * @param context the context
+     * @param uri     the uri, not null
+     * @return the type or an empty string when unknown
+     */
+    @WorkerThread
+    public static String detectMimeType(Context context, @NonNull Uri uri) {
+        return MimeDetection.DETECTOR.detect(context, uri);
+    }
+
     public static File createImageFile(Context context) {
         String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
         String imageFileName = "JPEG_" + timeStamp + "_";
@@ -155,7 +439,95 @@ public class FileUtils {
         return image;
     }
 
+    /**
+     * <p>Create a temporary image file and hand it to a janitor, which deletes it once
+     * the storage budget is exceeded and the file is among the least recently used.
+     * The file is indexed empty, call {@link StorageJanitor#touch} once the picture is
+     * written so its size is counted.</p>
+     *
+     * @param context the context
+     * @param janitor janitor managing the pictures directory, not null
+     * @return new empty file or null when it can not be created
+     */
+    public static File createImageFile(Context context, @NonNull StorageJanitor janitor) {
+        File image = createImageFile(context);
+        if (image != null) janitor.add(image);
+        return image;
+    }
+
     public static String replaceIllegalCharacter(String fileName) {
-        return fileName.replaceAll("[^a-zA-Z0-9.\\-]", "_");
+        return FileNames.replaceIllegalCharacter(fileName);
+    }
+
+    /**
+     * @return file extension with the dot for images of the format
+     */
+    static String getExtension(@NonNull Bitmap.CompressFormat format) {
+        switch (format) {
+            case PNG:
+                return ".png";
+            case WEBP:
+                return ".webp";
+            default:
+                return ".jpg";
+        }
+    }
+
+    /**
+     * Files.isSymbolicLink needs API 26, a link resolves to another canonical path than
+     * its name in the canonical parent
+     */
+    static boolean isSymbolicLink(@NonNull File canonicalParent, @NonNull File child) {
+        try {
+            return !child.getCanonicalFile().equals(new File(canonicalParent, child.getName()));
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close " + closeable, e);
+        }
+    }
+
+    /**
+     * Encoder and direct buffer reused by every write on a thread
+     */
+    private static class TextEncoder {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private CharsetEncoder encoder;
+
+        void encode(CharSequence data, Charset charset, WritableByteChannel channel) throws IOException {
+            if (encoder == null || !encoder.charset().equals(charset)) {
+                encoder = charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            encoder.reset();
+            buffer.clear();
+            CharBuffer in = CharBuffer.wrap(data);
+            CoderResult result;
+            do {
+                result = encoder.encode(in, buffer, true);
+                if (result.isError()) result.throwException();
+                drain(channel);
+            } while (result.isOverflow());
+            do {
+                result = encoder.flush(buffer);
+                drain(channel);
+            } while (result.isOverflow());
+        }
+
+        private void drain(WritableByteChannel channel) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
     }
 }
@@ -0,0 +1,230 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable text writes committed in groups.
+ * <p>
+ * Writes arriving within a commit window are committed together by one thread. Each
+ * file is written to a temporary file, synced and renamed over the target the same way
+ * as {@link FileUtils#writeToFileAtomically}, but the directories are synced once per
+ * group instead of once per write, and several writes to the same file in a window
+ * collapse into the last one. Callers wait on the returned {@link Commit} only when they
+ * need to know the text is on disk.
+ */
+
+public class GroupCommitWriter {
+
+    public static final long DEFAULT_COMMIT_WINDOW_MS = 10;
+
+    /**
+     * Result of a write, complete once the group it was committed with is durable
+     */
+    public static final class Commit {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile IOException error;
+
+        /**
+         * <p>Block until the write is durable</p>
+         *
+         * @throws IOException when the write failed, the file is left unchanged
+         */
+        @WorkerThread
+        public void await() throws IOException, InterruptedException {
+            done.await();
+            if (error != null) throw error;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        void complete(IOException error) {
+            this.error = error;
+            done.countDown();
+        }
+    }
+
+    private static final class Write {
+        final File file;
+        final CharSequence data;
+        final Charset charset;
+        final List<Commit> commits = new ArrayList<>(1);
+
+        Write(File file, CharSequence data, Charset charset, Commit commit) {
+            this.file = file;
+            this.data = data;
+            this.charset = charset;
+            commits.add(commit);
+        }
+    }
+
+    private static final Write SHUTDOWN = new Write(new File(""), "", Charset.defaultCharset(), new Commit());
+
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final long commitWindowMs;
+    private final Thread committer;
+    private boolean closed;
+
+    private long groups;
+    private long writes;
+
+    public GroupCommitWriter() {
+        this(DEFAULT_COMMIT_WINDOW_MS);
+    }
+
+    /**
+     * @param commitWindowMs how long the first write of a group waits for others
+     */
+    public GroupCommitWriter(long commitWindowMs) {
+        this.commitWindowMs = commitWindowMs;
+        this.committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commitLoop();
+            }
+        }, "GroupCommitWriter");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * <p>Queue text to replace the contents of a file</p>
+     *
+     * @param file    the target file, not null
+     * @param data    the text, must not change until the commit is done, not null
+     * @param charset charset of the file, not null
+     * @return commit to wait on
+     */
+    public Commit write(@NonNull File file, @NonNull CharSequence data, @NonNull Charset charset) {
+        Commit commit = new Commit();
+        synchronized (queue) {
+            if (!closed) {
+                queue.add(new Write(file.getAbsoluteFile(), data, charset, commit));
+                return commit;
+            }
+        }
+        commit.complete(new IOException("Writer is closed"));
+        return commit;
+    }
+
+    /**
+     * <p>Commit queued writes and stop the committer thread</p>
+     */
+    @WorkerThread
+    public void close() throws InterruptedException {
+        synchronized (queue) {
+            if (!closed) {
+                closed = true;
+                queue.add(SHUTDOWN);
+            }
+        }
+        committer.join();
+    }
+
+    /**
+     * @return number of groups committed, each costing one directory sync per directory
+     */
+    public synchronized long getGroupCount() {
+        return groups;
+    }
+
+    /**
+     * @return number of files written, writes collapsed within a group count once
+     */
+    public synchronized long getWriteCount() {
+        return writes;
+    }
+
+    private void commitLoop() {
+        List<Write> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commitWindowMs);
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    Write next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    if (next == SHUTDOWN) break;
+                }
+            } catch (InterruptedException e) {
+                synchronized (queue) {
+                    closed = true;
+                }
+                running = false;
+            }
+            if (batch.remove(SHUTDOWN)) running = false;
+            commit(batch);
+            batch.clear();
+        }
+
+        // interrupted with writes still queued
+        List<Write> rejected = new ArrayList<>();
+        queue.drainTo(rejected);
+        for (Write write : rejected) {
+            complete(write, new IOException("Writer is closed"));
+        }
+    }
+
+    private void commit(List<Write> batch) {
+        if (batch.isEmpty()) return;
+
+        // the last write to a file wins, earlier callers complete with it
+        Map<File, Write> latest = new LinkedHashMap<>();
+        for (Write write : batch) {
+            Write previous = latest.remove(write.file);
+            if (previous != null) write.commits.addAll(0, previous.commits);
+            latest.put(write.file, write);
+        }
+
+        Set<File> directories = new LinkedHashSet<>();
+        Map<Write, IOException> failures = new LinkedHashMap<>();
+        for (Write write : latest.values()) {
+            try {
+                File tmp = FileUtils.writeTemporary(write.file, write.data, write.charset);
+                FileUtils.commitAtomically(tmp, write.file);
+                directories.add(write.file.getParentFile());
+            } catch (IOException e) {
+                failures.put(write, e);
+            } catch (RuntimeException e) {
+                // must not stop the committer, its callers would wait forever
+                failures.put(write, new IOException(e));
+            }
+        }
+        for (File directory : directories) {
+            FileUtils.syncDirectory(directory);
+        }
+
+        synchronized (this) {
+            groups++;
+            writes += latest.size();
+        }
+        for (Write write : latest.values()) {
+            complete(write, failures.get(write));
+        }
+    }
+
+    private static void complete(Write write, IOException error) {
+        for (Commit commit : write.commits) {
+            commit.complete(error);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.indeema.library.androidutils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Two level cache of decoded and transformed images.
+ * <p>
+ * Bitmaps are kept in a memory LRU bounded by their byte count, and their encoded
+ * form in an optional {@link DiskCache} that survives process death.
+ */
+
+public class ImageCache {
+
+    private final LruCache<String, Bitmap> memoryCache;
+    @Nullable
+    private final DiskCache diskCache;
+    private final Bitmap.CompressFormat format;
+    private final int quality;
+
+    private int diskHitCount;
+    private int diskMissCount;
+
+    /**
+     * @param memoryBytes maximum byte count of bitmaps kept in memory
+     * @param diskCache   cache of encoded images or null to keep images in memory only
+     * @param format      format images are encoded to on disk
+     * @param quality     hint to the compressor, 0-100
+     */
+    public ImageCache(int memoryBytes,
+                      @Nullable DiskCache diskCache,
+                      @NonNull Bitmap.CompressFormat format,
+                      int quality) {
+        this.memoryCache = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        this.diskCache = diskCache;
+        this.format = format;
+        this.quality = quality;
+    }
+
+    /**
+     * <p>Build the cache key of an image</p>
+     *
+     * @param source    identity of the source, e.g. resource id, file path with modification time or url
+     * @param width     the required width.
+     * @param height    the required height.
+     * @param transform description of the transformations applied after decoding, may be null
+     * @return key usable with both cache levels
+     */
+    public static String key(@NonNull String source, int width, int height, @Nullable String transform) {
+        String description = source + '|' + width + 'x' + height + '|' + (transform == null ? "" : transform);
+        return EncryptionUtils.convertToMD5(description);
+    }
+
+    /**
+     * <p>Get image from memory only, safe to call on the main thread</p>
+     *
+     * @param key the cache key
+     * @return bitmap or null if it is not in memory
+     */
+    @Nullable
+    public Bitmap getFromMemory(@NonNull String key) {
+        return memoryCache.get(key);
+    }
+
+    /**
+     * <p>Get image from memory or decode it from disk. Images found on disk are
+     * promoted to memory.</p>
+     *
+     * @param key the cache key
+     * @return bitmap or null if it is in neither level
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap get(@NonNull String key) {
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null || diskCache == null) return bitmap;
+
+        File file;
+        try {
+            file = diskCache.get(key);
+        } catch (IOException e) {
+            file = null;
+        }
+        if (file != null) {
+            bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+        }
+
+        synchronized (this) {
+            if (bitmap != null) {
+                diskHitCount++;
+            } else {
+                diskMissCount++;
+            }
+        }
+        if (bitmap != null) {
+            memoryCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * <p>Put image to memory and write it to disk</p>
+     *
+     * @param key    the cache key
+     * @param bitmap the bitmap, not altered, not null.
+     */
+    @WorkerThread
+    public void put(@NonNull String key, @NonNull final Bitmap bitmap) {
+        memoryCache.put(key, bitmap);
+        if (diskCache == null) return;
+        try {
+            diskCache.put(key, new DiskCache.EntryWriter() {
+                @Override
+                public void write(@NonNull OutputStream out) throws IOException {
+                    if (!bitmap.compress(format, quality, out)) {
+                        throw new IOException("Can not encode bitmap");
+                    }
+                }
+            });
+        } catch (IOException e) {
+            // memory level still holds the image
+        }
+    }
+
+    /**
+     * <p>Remove image from both levels</p>
+     *
+     * @param key the cache key
+     */
+    @WorkerThread
+    public void remove(@NonNull String key) {
+        memoryCache.remove(key);
+        if (diskCache == null) return;
+        try {
+            diskCache.remove(key);
+        } catch (IOException e) {
+            // entry is left for eviction
+        }
+    }
+
+    /**
+     * <p>Drop all images from memory, disk level is kept</p>
+     */
+    public void evictMemory() {
+        memoryCache.evictAll();
+    }
+
+    public int getMemoryHitCount() {
+        return memoryCache.hitCount();
+    }
+
+    public int getMemoryMissCount() {
+        return memoryCache.missCount();
+    }
+
+    public int getMemoryEvictionCount() {
+        return memoryCache.evictionCount();
+    }
+
+    public synchronized int getDiskHitCount() {
+        return diskHitCount;
+    }
+
+    public synchronized int getDiskMissCount() {
+        return diskMissCount;
+    }
+
+    public int getDiskEvictionCount() {
+        return diskCache == null ? 0 : diskCache.getEvictionCount();
+    }
+}
@@ -0,0 +1,256 @@
+package com.indeema.library.androidutils;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes images on a bounded pool of background threads.
+ * <p>
+ * Requests for visible items run before prefetch requests. Requests with the same key
+ * that are already queued or running share one decode, and each of them can be
+ * cancelled on its own, e.g. when a view is recycled.
+ */
+
+public class ImageDecodeService {
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+
+    /**
+     * Delivers results on the main thread
+     */
+    public static final Executor MAIN_THREAD_EXECUTOR = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            handler.post(command);
+        }
+    };
+
+    public interface Callback {
+        /**
+         * @param key    key of the request
+         * @param bitmap decoded bitmap or null if decoding failed
+         */
+        void onDecoded(@NonNull String key, @Nullable Bitmap bitmap);
+    }
+
+    /**
+     * Handle of a submitted request
+     */
+    public final class Request {
+        private final Callback callback;
+        private final Job job;
+        private volatile boolean cancelled;
+
+        Request(Job job, Callback callback) {
+            this.job = job;
+            this.callback = callback;
+        }
+
+        /**
+         * <p>Stop delivering the result to this request. The decode itself is
+         * dropped when no other request is waiting for it.</p>
+         */
+        public void cancel() {
+            cancelled = true;
+            ImageDecodeService.this.cancel(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Executor callbackExecutor;
+    private final Map<String, Job> inFlight = new HashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    private long waitTimeTotalNanos;
+    private long waitTimeMaxNanos;
+    private int startedCount;
+    private int coalescedCount;
+
+    /**
+     * @param threads          number of decode threads
+     * @param callbackExecutor executor results are delivered on, e.g. {@link #MAIN_THREAD_EXECUTOR}
+     */
+    public ImageDecodeService(int threads, @NonNull Executor callbackExecutor) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new DecodeThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * <p>Queue a decode. A request with the key of a queued or running decode is
+     * attached to it instead, raising its priority if needed.</p>
+     *
+     * @param key      identity of the result, e.g. {@link ImageCache#key}
+     * @param priority {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_PREFETCH}
+     * @param decoder  decodes the bitmap on a pool thread
+     * @param callback receives the result on the callback executor
+     * @return handle to cancel the request
+     * @throws RejectedExecutionException after {@link #shutdown}
+     */
+    public synchronized Request submit(@NonNull String key,
+                                       int priority,
+                                       @NonNull Callable<Bitmap> decoder,
+                                       @NonNull Callback callback) {
+        if (executor.isShutdown()) throw new RejectedExecutionException("shut down");
+        Job job = inFlight.get(key);
+        if (job == null) {
+            job = new Job(key, priority, decoder);
+            inFlight.put(key, job);
+            Request request = job.attach(callback);
+            executor.execute(job);
+            return request;
+        }
+
+        coalescedCount++;
+        Request request = job.attach(callback);
+        if (priority < job.priority && executor.remove(job)) {
+            job.priority = priority;
+            executor.execute(job);
+        }
+        return request;
+    }
+
+    /**
+     * @return number of decodes waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return mean time decodes waited in the queue, in milliseconds
+     */
+    public synchronized long getAverageWaitMillis() {
+        return startedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitTimeTotalNanos / startedCount);
+    }
+
+    /**
+     * @return longest time a decode waited in the queue, in milliseconds
+     */
+    public synchronized long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTimeMaxNanos);
+    }
+
+    public synchronized int getStartedCount() {
+        return startedCount;
+    }
+
+    /**
+     * @return number of requests that were merged into a decode already in flight
+     */
+    public synchronized int getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * <p>Drop queued decodes and stop the threads once running decodes finish</p>
+     */
+    public synchronized void shutdown() {
+        executor.shutdownNow();
+        inFlight.clear();
+    }
+
+    private synchronized void cancel(Request request) {
+        Job job = request.job;
+        job.requests.remove(request);
+        if (job.requests.isEmpty() && inFlight.get(job.key) == job && executor.remove(job)) {
+            inFlight.remove(job.key);
+        }
+    }
+
+    private synchronized void onStarted(Job job) {
+        long wait = System.nanoTime() - job.queuedAt;
+        waitTimeTotalNanos += wait;
+        waitTimeMaxNanos = Math.max(waitTimeMaxNanos, wait);
+        startedCount++;
+    }
+
+    private synchronized List<Request> onFinished(Job job) {
+        if (inFlight.get(job.key) == job) inFlight.remove(job.key);
+        return new ArrayList<>(job.requests);
+    }
+
+    private final class Job implements Runnable, Comparable<Job> {
+        final String key;
+        final Callable<Bitmap> decoder;
+        final int order = sequence.getAndIncrement();
+        final long queuedAt = System.nanoTime();
+        final List<Request> requests = new ArrayList<>(1);
+        int priority;
+
+        Job(String key, int priority, Callable<Bitmap> decoder) {
+            this.key = key;
+            this.priority = priority;
+            this.decoder = decoder;
+        }
+
+        Request attach(Callback callback) {
+            Request request = new Request(this, callback);
+            requests.add(request);
+            return request;
+        }
+
+        @Override
+        public void run() {
+            onStarted(this);
+            Bitmap bitmap;
+            try {
+                bitmap = decoder.call();
+            } catch (Exception | OutOfMemoryError e) {
+                bitmap = null;
+            }
+
+            final Bitmap result = bitmap;
+            for (final Request request : onFinished(this)) {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!request.isCancelled()) request.callback.onDecoded(key, result);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Job other) {
+            if (priority != other.priority) return priority < other.priority ? -1 : 1;
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    private static final class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "ImageDecode-" + count.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY + 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Size, format and EXIF orientation of an encoded image, read from its header only.
+ * <p>
+ * Supports PNG, JPEG, WebP and GIF. Only segment headers are read while looking for
+ * the size, segment bodies are skipped, and at most {@link #EXIF_READ_LIMIT} bytes of
+ * EXIF data are buffered. No Android classes are used, so it runs on a plain JVM.
+ */
+
+public final class ImageHeader {
+
+    public static final String MIME_JPEG = "image/jpeg";
+    public static final String MIME_PNG = "image/png";
+    public static final String MIME_WEBP = "image/webp";
+    public static final String MIME_GIF = "image/gif";
+
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    /**
+     * Bytes the parser may advance into the stream before it gives up
+     */
+    static final int SCAN_LIMIT = 256 * 1024;
+    private static final int EXIF_READ_LIMIT = 4 * 1024;
+
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    private final int width;
+    private final int height;
+    private final String mimeType;
+    private final int orientation;
+
+    private ImageHeader(int width, int height, String mimeType, int orientation) {
+        this.width = width;
+        this.height = height;
+        this.mimeType = mimeType;
+        this.orientation = orientation;
+    }
+
+    /**
+     * <p>Read the header of an image file</p>
+     *
+     * @param file image file, not null
+     * @return header or null if the format is not recognised or the header is broken
+     */
+    @Nullable
+    public static ImageHeader parse(@NonNull File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 8 * 1024);
+        try {
+            return parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * <p>Read the header of an image from the current position of a stream, the
+     * stream is left somewhere inside the image and is not closed</p>
+     *
+     * @param in stream of encoded image, not null
+     * @return header or null if the format is not recognised or the header is broken
+     */
+    @Nullable
+    public static ImageHeader parse(@NonNull InputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        try {
+            int first = reader.readByte();
+            int second = reader.readByte();
+            if (first == 0xFF && second == 0xD8) return parseJpeg(reader);
+            if (first == 0x89 && second == 'P') return parsePng(reader);
+            if (first == 'R' && second == 'I') return parseWebp(reader);
+            if (first == 'G' && second == 'I') return parseGif(reader);
+            return null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @return EXIF orientation, {@link #ORIENTATION_NORMAL} when the image has none
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * @return clockwise rotation needed to display the image upright
+     */
+    public int getRotationDegrees() {
+        switch (orientation) {
+            case ORIENTATION_ROTATE_90:
+            case ORIENTATION_TRANSPOSE:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+            case ORIENTATION_FLIP_VERTICAL:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+            case ORIENTATION_TRANSVERSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return true if the image has to be mirrored horizontally after the rotation
+     */
+    public boolean isFlipped() {
+        return orientation == ORIENTATION_FLIP_HORIZONTAL
+                || orientation == ORIENTATION_FLIP_VERTICAL
+                || orientation == ORIENTATION_TRANSPOSE
+                || orientation == ORIENTATION_TRANSVERSE;
+    }
+
+    private static ImageHeader parsePng(Reader reader) throws IOException {
+        // rest of the signature, then the IHDR chunk which must come first
+        if (reader.readByte() != 'N' || reader.readByte() != 'G') return null;
+        reader.skip(4);
+        reader.skip(4);
+        if (reader.readInt(true) != 0x49484452) return null;
+        return create(reader.readInt(true), reader.readInt(true), MIME_PNG, ORIENTATION_NORMAL);
+    }
+
+    private static ImageHeader parseGif(Reader reader) throws IOException {
+        if (reader.readByte() != 'F' || reader.readByte() != '8') return null;
+        reader.skip(2);
+        return create(reader.readShort(false), reader.readShort(false), MIME_GIF, ORIENTATION_NORMAL);
+    }
+
+    private static ImageHeader parseWebp(Reader reader) throws IOException {
+        if (reader.readByte() != 'F' || reader.readByte() != 'F') return null;
+        reader.skip(4);
+        if (reader.readInt(true) != 0x57454250) return null; // WEBP
+
+        int chunk = reader.readInt(true);
+        reader.skip(4);
+        switch (chunk) {
+            case 0x56503820: { // "VP8 " lossy
+                reader.skip(3);
+                if (reader.readByte() != 0x9D || reader.readByte() != 0x01 || reader.readByte() != 0x2A) {
+                    return null;
+                }
+                int width = reader.readShort(false) & 0x3FFF;
+                int height = reader.readShort(false) & 0x3FFF;
+                return create(width, height, MIME_WEBP, ORIENTATION_NORMAL);
+            }
+            case 0x5650384C: { // "VP8L" lossless
+                if (reader.readByte() != 0x2F) return null;
+                int bits = reader.readInt(false);
+                return create((bits & 0x3FFF) + 1, ((bits >> 14) & 0x3FFF) + 1, MIME_WEBP, ORIENTATION_NORMAL);
+            }
+            case 0x56503858: { // "VP8X" extended
+                reader.skip(4);
+                int width = reader.readInt24() + 1;
+                int height = reader.readInt24() + 1;
+                return create(width, height, MIME_WEBP, ORIENTATION_NORMAL);
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static ImageHeader parseJpeg(Reader reader) throws IOException {
+        int orientation = ORIENTATION_NORMAL;
+        while (true) {
+            if (reader.readByte() != 0xFF) return null;
+            int marker = reader.readByte();
+            while (marker == 0xFF) {
+                marker = reader.readByte();
+            }
+            // standalone markers carry no length
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) continue;
+            // end of image or start of scan before any frame header
+            if (marker == 0xD9 || marker == 0xDA) return null;
+
+            int length = reader.readShort(true) - 2;
+            if (length < 0) return null;
+
+            boolean startOfFrame = marker >= 0xC0 && marker <= 0xCF
+                    && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+            if (startOfFrame) {
+                if (length < 5) return null;
+                reader.skip(1);
+                int height = reader.readShort(true);
+                int width = reader.readShort(true);
+                return create(width, height, MIME_JPEG, orientation);
+            }
+
+            if (marker == 0xE1 && length >= 6) {
+                byte[] exif = new byte[Math.min(length, EXIF_READ_LIMIT)];
+                reader.readFully(exif);
+                reader.skip(length - exif.length);
+                int value = readExifOrientation(exif);
+                if (value != 0) orientation = value;
+            } else {
+                reader.skip(length);
+            }
+        }
+    }
+
+    /**
+     * @return orientation from the APP1 segment or 0 if it has none
+     */
+    private static int readExifOrientation(byte[] app1) {
+        if (app1[0] != 'E' || app1[1] != 'x' || app1[2] != 'i' || app1[3] != 'f'
+                || app1[4] != 0 || app1[5] != 0) {
+            return 0;
+        }
+        final int tiff = 6;
+        if (app1.length < tiff + 8) return 0;
+
+        boolean bigEndian;
+        if (app1[tiff] == 'M' && app1[tiff + 1] == 'M') {
+            bigEndian = true;
+        } else if (app1[tiff] == 'I' && app1[tiff + 1] == 'I') {
+            bigEndian = false;
+        } else {
+            return 0;
+        }
+        if (getShort(app1, tiff + 2, bigEndian) != 42) return 0;
+
+        long ifdOffset = getInt(app1, tiff + 4, bigEndian) & 0xFFFFFFFFL;
+        long ifd = tiff + ifdOffset;
+        if (ifd + 2 > app1.length) return 0;
+
+        int count = getShort(app1, (int) ifd, bigEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = (int) ifd + 2 + i * 12;
+            if (entry + 12 > app1.length) return 0;
+            if (getShort(app1, entry, bigEndian) == EXIF_ORIENTATION_TAG) {
+                int value = getShort(app1, entry + 8, bigEndian);
+                return value >= ORIENTATION_NORMAL && value <= ORIENTATION_ROTATE_270 ? value : 0;
+            }
+        }
+        return 0;
+    }
+
+    private static int getShort(byte[] data, int offset, boolean bigEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return bigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0;
+    }
+
+    private static int getInt(byte[] data, int offset, boolean bigEndian) {
+        return bigEndian
+                ? getShort(data, offset, true) << 16 | getShort(data, offset + 2, true)
+                : getShort(data, offset + 2, false) << 16 | getShort(data, offset, false);
+    }
+
+    private static ImageHeader create(int width, int height, String mimeType, int orientation) {
+        if (width <= 0 || height <= 0) return null;
+        return new ImageHeader(width, height, mimeType, orientation);
+    }
+
+    /**
+     * Reads primitives and stops at {@link #SCAN_LIMIT}
+     */
+    private static final class Reader {
+        private final InputStream in;
+        private long position;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        int readByte() throws IOException {
+            if (++position > SCAN_LIMIT) throw new EOFException();
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            return b;
+        }
+
+        int readShort(boolean bigEndian) throws IOException {
+            int b0 = readByte();
+            int b1 = readByte();
+            return bigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0;
+        }
+
+        int readInt24() throws IOException {
+            return readByte() | readByte() << 8 | readByte() << 16;
+        }
+
+        int readInt(boolean bigEndian) throws IOException {
+            int high;
+            int low;
+            if (bigEndian) {
+                high = readShort(true);
+                low = readShort(true);
+            } else {
+                low = readShort(false);
+                high = readShort(false);
+            }
+            return high << 16 | low;
+        }
+
+        void readFully(byte[] buffer) throws IOException {
+            if (position + buffer.length > SCAN_LIMIT) throw new EOFException();
+            int read = 0;
+            while (read < buffer.length) {
+                int count = in.read(buffer, read, buffer.length - read);
+                if (count < 0) throw new EOFException();
+                read += count;
+            }
+            position += buffer.length;
+        }
+
+        void skip(long count) throws IOException {
+            if (position + count > SCAN_LIMIT) throw new EOFException();
+            long remaining = count;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    // skip may refuse to move, fall back to a read to detect the end
+                    if (in.read() < 0) throw new EOFException();
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            position += count;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.indeema.library.androidutils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lazy chain of the geometric operations of {@link ImageUtils}.
+ * <p>
+ * Operations are only recorded until the chain is applied. Adjacent operations that
+ * cancel out are dropped while recording, and the matrices of the whole chain are
+ * then composed on one canvas, so the source is drawn once into the destination. When decoding from a file, the downscale
+ * of the chain is pushed into the sample size of the decoder.
+ * <pre>
+ * Bitmap thumb = new ImageTransform().trimToSquare().centerCrop(200, 200).rotate(90).decode(file);
+ * </pre>
+ */
+
+public class ImageTransform {
+
+    private static final int OP_TRIM_TO_SQUARE = 0;
+    private static final int OP_CENTER_CROP = 1;
+    private static final int OP_ROTATE = 2;
+    private static final int OP_MIRROR = 3;
+
+    private static final class Operation {
+        final int type;
+        final int width;
+        final int height;
+        final int angle;
+
+        Operation(int type, int width, int height, int angle) {
+            this.type = type;
+            this.width = width;
+            this.height = height;
+            this.angle = angle;
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * <p>Trim to square, same as {@link ImageUtils#trimToSquare(Bitmap)}</p>
+     */
+    public ImageTransform trimToSquare() {
+        Operation last = last();
+        if (last == null || last.type != OP_TRIM_TO_SQUARE) {
+            operations.add(new Operation(OP_TRIM_TO_SQUARE, 0, 0, 0));
+        }
+        return this;
+    }
+
+    /**
+     * <p>Scale with centerCrop type, same as {@link ImageUtils#scaleCenterCrop(Bitmap, int, int)}</p>
+     *
+     * @param width  the the required width.
+     * @param height the the required height.
+     */
+    public ImageTransform centerCrop(int width, int height) {
+        Operation last = last();
+        // cropping to the same size again changes nothing
+        if (last == null || last.type != OP_CENTER_CROP || last.width != width || last.height != height) {
+            operations.add(new Operation(OP_CENTER_CROP, width, height, 0));
+        }
+        return this;
+    }
+
+    /**
+     * <p>Rotate, same as {@link ImageUtils#rotateBitmap(Bitmap, int)}</p>
+     *
+     * @param angle at which the bitmap will be returned
+     */
+    public ImageTransform rotate(int angle) {
+        Operation last = last();
+        if (last != null && last.type == OP_ROTATE) {
+            operations.remove(operations.size() - 1);
+            angle += last.angle;
+        }
+        angle %= 360;
+        if (angle < 0) angle += 360;
+        if (angle != 0) {
+            operations.add(new Operation(OP_ROTATE, 0, 0, angle));
+        }
+        return this;
+    }
+
+    /**
+     * <p>Mirror, same as {@link ImageUtils#mirrorBitmap(Bitmap)}</p>
+     */
+    public ImageTransform mirror() {
+        Operation last = last();
+        if (last != null && last.type == OP_MIRROR) {
+            operations.remove(operations.size() - 1);
+        } else {
+            operations.add(new Operation(OP_MIRROR, 0, 0, 0));
+        }
+        return this;
+    }
+
+    /**
+     * <p>Turn the image upright by the EXIF orientation of its header</p>
+     *
+     * @param header header of the image, not null
+     */
+    public ImageTransform orient(@NonNull ImageHeader header) {
+        // the header gives a clockwise angle, rotate takes a counterclockwise one
+        rotate(360 - header.getRotationDegrees());
+        if (header.isFlipped()) mirror();
+        return this;
+    }
+
+    /**
+     * @return true if the chain leaves images unchanged
+     */
+    public boolean isIdentity() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * <p>Stable description of the chain, equal for chains which give the same result
+     * after cancelled operations are dropped. Pass it as the transform of
+     * {@link ImageCache#key}.</p>
+     *
+     * @return key of the chain
+     */
+    public String getKey() {
+        StringBuilder key = new StringBuilder();
+        for (Operation operation : operations) {
+            if (key.length() > 0) key.append('|');
+            switch (operation.type) {
+                case OP_TRIM_TO_SQUARE:
+                    key.append("trim");
+                    break;
+                case OP_CENTER_CROP:
+                    key.append("crop(").append(operation.width).append('x').append(operation.height).append(')');
+                    break;
+                case OP_ROTATE:
+                    key.append("rotate(").append(operation.angle).append(')');
+                    break;
+                case OP_MIRROR:
+                    key.append("mirror");
+                    break;
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * <p>Apply the chain with a single draw</p>
+     *
+     * @param source the bitmap, not altered, not null.
+     * @return new bitmap, or source itself if the chain is empty
+     */
+    public Bitmap apply(@NonNull Bitmap source) {
+        if (operations.isEmpty()) return source;
+
+        int count = operations.size();
+        Matrix[] matrices = new Matrix[count];
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        int width = source.getWidth();
+        int height = source.getHeight();
+        for (int i = 0; i < count; i++) {
+            Matrix matrix = new Matrix();
+            int[] size = step(operations.get(i), width, height, matrix);
+            matrices[i] = matrix;
+            width = widths[i] = size[0];
+            height = heights[i] = size[1];
+        }
+
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap dest = Bitmap.createBitmap(width, height, config);
+        Canvas canvas = new Canvas(dest);
+        // Walk back from the destination, clipping to every intermediate crop so pixels
+        // cropped early can not show up in the corners left by a later rotation
+        for (int i = count - 1; i >= 0; i--) {
+            int type = operations.get(i).type;
+            if (i < count - 1 && (type == OP_TRIM_TO_SQUARE || type == OP_CENTER_CROP)) {
+                canvas.clipRect(new Rect(0, 0, widths[i], heights[i]));
+            }
+            canvas.concat(matrices[i]);
+        }
+        canvas.drawBitmap(source, 0, 0, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return dest;
+    }
+
+    /**
+     * <p>Decode a file and apply the chain. The downscale of the chain is done by the
+     * decoder sample size, so the full size image is never decoded when the result
+     * is smaller.</p>
+     *
+     * @param file image file, not null
+     * @return transformed bitmap or null if the file could not be decoded
+     */
+    @Nullable
+    public Bitmap decode(@NonNull File file) {
+        final String path = file.getAbsolutePath();
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+
+        Bitmap decoded = BitmapFactory.decodeFile(path, options);
+        if (decoded == null) return null;
+        Bitmap result = apply(decoded);
+        if (result != decoded) decoded.recycle();
+        return result;
+    }
+
+    /**
+     * <p>Calculate the sample size a source can be decoded with, without changing the
+     * result of the chain. Only chains ending with a fixed size downscale can be sampled.</p>
+     *
+     * @param sourceWidth  width of the encoded image
+     * @param sourceHeight height of the encoded image
+     * @return sample size value that is a power of two
+     */
+    public int calculateInSampleSize(int sourceWidth, int sourceHeight) {
+        if (sourceWidth <= 0 || sourceHeight <= 0) return 1;
+
+        int lastCrop = -1;
+        for (int i = 0; i < operations.size(); i++) {
+            if (operations.get(i).type == OP_CENTER_CROP) lastCrop = i;
+        }
+        // without a fixed size the result size follows the decoded size
+        if (lastCrop < 0) return 1;
+
+        float scale = 1f;
+        int width = sourceWidth;
+        int height = sourceHeight;
+        Matrix matrix = new Matrix();
+        for (int i = 0; i <= lastCrop; i++) {
+            Operation operation = operations.get(i);
+            if (operation.type == OP_CENTER_CROP) {
+                scale *= Math.max((float) operation.width / width, (float) operation.height / height);
+            }
+            matrix.reset();
+            int[] size = step(operation, width, height, matrix);
+            width = size[0];
+            height = size[1];
+        }
+
+        int sampleSize = 1;
+        while (scale * sampleSize * 2 <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Set matrix to the operation applied to an image of the given size
+     *
+     * @return size of the result
+     */
+    private static int[] step(Operation operation, int width, int height, Matrix matrix) {
+        switch (operation.type) {
+            case OP_TRIM_TO_SQUARE: {
+                int side = Math.min(width, height);
+                matrix.setTranslate(-((width - side) / 2), -((height - side) / 2));
+                return new int[]{side, side};
+            }
+            case OP_CENTER_CROP: {
+                float scale = Math.max((float) operation.width / width, (float) operation.height / height);
+                matrix.setScale(scale, scale);
+                matrix.postTranslate((operation.width - scale * width) / 2, (operation.height - scale * height) / 2);
+                return new int[]{operation.width, operation.height};
+            }
+            case OP_ROTATE: {
+                matrix.setRotate(360 - operation.angle);
+                RectF bounds = new RectF(0, 0, width, height);
+                matrix.mapRect(bounds);
+                matrix.postTranslate(-bounds.left, -bounds.top);
+                return new int[]{Math.round(bounds.width()), Math.round(bounds.height())};
+            }
+            default: {
+                matrix.setScale(-1.0f, 1.0f);
+                matrix.postTranslate(width, 0);
+                return new int[]{width, height};
+            }
+        }
+    }
+
+    private Operation last() {
+        return operations.isEmpty() ? null : operations.get(operations.size() - 1);
+    }
+}
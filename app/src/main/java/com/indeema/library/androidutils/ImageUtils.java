@@ -4,17 +4,26 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.os.Environment;
 import android.view.View;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Utility methods for working with images.
@@ -26,6 +35,15 @@ public class ImageUtils {
     private static final float BITMAP_SCALE = 0.4f;
     private static final float BLUR_RADIUS = 16.0f;
 
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<DrawState> DRAW_STATE = new ThreadLocal<DrawState>() {
+        @Override
+        protected DrawState initialValue() {
+            return new DrawState();
+        }
+    };
+
 
     /**
      * <p>Make screenshot from view</p>
@@ -40,6 +58,132 @@ public class ImageUtils {
         return b;
     }
 
+    /**
+     * <p>Make downscaled screenshot of view or of a region of it into a reusable bitmap.
+     * With scale 0.25 the bitmap takes 1/16 of the memory of a full screenshot and
+     * the view is drawn at that resolution.</p>
+     *
+     * @param v      the view, not altered, not null.
+     * @param scale  scale of the screenshot, 0-1
+     * @param region region of the view in view coordinates, null for the whole view
+     * @param config {@link Bitmap.Config#RGB_565} halves memory for opaque views
+     * @param reuse  bitmap drawn into when it is mutable and big enough, may be null
+     * @return reuse, reconfigured when needed, or a new bitmap
+     * @throws IllegalArgumentException when the view is not laid out or the region is empty
+     */
+    public static Bitmap getScreenshot(@NonNull View v,
+                                       float scale,
+                                       @Nullable Rect region,
+                                       @NonNull Bitmap.Config config,
+                                       @Nullable Bitmap reuse) {
+        int left = region != null ? region.left : 0;
+        int top = region != null ? region.top : 0;
+        int regionWidth = region != null ? region.width() : v.getWidth();
+        int regionHeight = region != null ? region.height() : v.getHeight();
+        if (regionWidth <= 0 || regionHeight <= 0) {
+            throw new IllegalArgumentException("Can not capture " + regionWidth + "x" + regionHeight);
+        }
+        int width = Math.max(1, Math.round(regionWidth * scale));
+        int height = Math.max(1, Math.round(regionHeight * scale));
+
+        Bitmap dest = reuseBitmap(reuse, width, height, config);
+        DrawState state = DRAW_STATE.get();
+        Canvas canvas = state.canvas;
+        canvas.setBitmap(dest);
+        int saveCount = canvas.save();
+        canvas.scale((float) width / regionWidth, (float) height / regionHeight);
+        canvas.translate(-left, -top);
+        v.draw(canvas);
+        canvas.restoreToCount(saveCount);
+        canvas.setBitmap(null);
+        return dest;
+    }
+
+    /**
+     * <p>Blur bitmap with default scale and radius, suitable for backgrounds</p>
+     *
+     * @param source the bitmap, not altered, not null.
+     * @return new blurred bitmap, downscaled by {@link #BITMAP_SCALE}
+     */
+    public static Bitmap blur(@NonNull Bitmap source) {
+        return blur(source, BITMAP_SCALE, (int) BLUR_RADIUS);
+    }
+
+    /**
+     * <p>Downscale and blur bitmap. Works without RenderScript, the blur itself runs
+     * in {@link StackBlur} over pixel stripes on all cores.</p>
+     *
+     * @param source the bitmap, not altered, not null.
+     * @param scale  downscale factor applied before blurring, 0-1
+     * @param radius blur radius in pixels of the downscaled bitmap
+     * @return new blurred bitmap
+     */
+    public static Bitmap blur(@NonNull Bitmap source, float scale, int radius) {
+        int width = Math.max(1, Math.round(source.getWidth() * scale));
+        int height = Math.max(1, Math.round(source.getHeight() * scale));
+
+        Bitmap dest = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(dest);
+        canvas.drawBitmap(source, null, new RectF(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+
+        // per call arrays, so blurs on several threads run at once and nothing stays pinned
+        int[] pixels = new int[width * height];
+        dest.getPixels(pixels, 0, width, 0, 0, width, height);
+        Blur.STACK_BLUR.blur(pixels, new int[width * height], width, height, radius);
+        dest.setPixels(pixels, 0, width, 0, 0, width, height);
+        return dest;
+    }
+
+    /**
+     * <p>Difference hash of bitmap for near duplicate detection</p>
+     *
+     * @param source the bitmap, not altered, not null.
+     * @return 64 bit hash, compare with {@link PerceptualHash#distance}
+     */
+    public static long dHash(@NonNull Bitmap source) {
+        return PerceptualHash.dHash(grayPixels(source, PerceptualHash.DHASH_WIDTH, PerceptualHash.DHASH_HEIGHT));
+    }
+
+    /**
+     * <p>DCT hash of bitmap for near duplicate detection</p>
+     *
+     * @param source the bitmap, not altered, not null.
+     * @return 64 bit hash, compare with {@link PerceptualHash#distance}
+     */
+    public static long pHash(@NonNull Bitmap source) {
+        return PerceptualHash.pHash(grayPixels(source, PerceptualHash.PHASH_SIZE, PerceptualHash.PHASH_SIZE));
+    }
+
+    /**
+     * <p>Difference hash of image file, only a tiny sampled version is decoded</p>
+     *
+     * @param file image file, not null
+     * @return 64 bit hash
+     * @throws IOException when the file can not be decoded, no hash stands for an unreadable file
+     */
+    public static long dHash(@NonNull File file) throws IOException {
+        Bitmap bitmap = decodeSampledBitmapFromFile(file, PerceptualHash.PHASH_SIZE, PerceptualHash.PHASH_SIZE);
+        if (bitmap == null) throw new IOException("Can not decode " + file);
+        long hash = dHash(bitmap);
+        bitmap.recycle();
+        return hash;
+    }
+
+    /**
+     * <p>DCT hash of image file, only a tiny sampled version is decoded</p>
+     *
+     * @param file image file, not null
+     * @return 64 bit hash
+     * @throws IOException when the file can not be decoded, no hash stands for an unreadable file
+     */
+    public static long pHash(@NonNull File file) throws IOException {
+        Bitmap bitmap = decodeSampledBitmapFromFile(file, PerceptualHash.PHASH_SIZE, PerceptualHash.PHASH_SIZE);
+        if (bitmap == null) throw new IOException("Can not decode " + file);
+        long hash = pHash(bitmap);
+        bitmap.recycle();
+        return hash;
+    }
+
     /**
      * <p>Make rotate of bitmap</p>
      *
@@ -59,6 +203,34 @@ public class ImageUtils {
                 true);
     }
 
+    /**
+     * <p>Rotate bitmap into a reusable destination, no bitmap is allocated</p>
+     *
+     * @param source the bitmap, not altered, not null.
+     * @param angle  at which the bitmap will be drawn
+     * @param dest   mutable bitmap with the size of the rotated source, altered, not null.
+     * @return dest
+     */
+    public static Bitmap rotateBitmap(@NonNull Bitmap source, int angle, @NonNull Bitmap dest) {
+        DrawState state = DRAW_STATE.get();
+        Matrix matrix = state.matrix;
+        matrix.reset();
+        matrix.postRotate(360 - angle);
+
+        RectF bounds = state.dstRect;
+        bounds.set(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        checkDestination(dest, Math.round(bounds.width()), Math.round(bounds.height()));
+        matrix.postTranslate(-bounds.left, -bounds.top);
+
+        Canvas canvas = state.canvas;
+        canvas.setBitmap(dest);
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.drawBitmap(source, matrix, state.filterPaint);
+        canvas.setBitmap(null);
+        return dest;
+    }
+
     /**
      * <p>Make mirror of bitmap</p>
      *
@@ -71,6 +243,29 @@ public class ImageUtils {
         return Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, false);
     }
 
+    /**
+     * <p>Mirror bitmap into a reusable destination, no bitmap is allocated</p>
+     *
+     * @param source the bitmap, not altered, not null.
+     * @param dest   mutable bitmap with the size of source, altered, not null.
+     * @return dest
+     */
+    public static Bitmap mirrorBitmap(@NonNull Bitmap source, @NonNull Bitmap dest) {
+        checkDestination(dest, source.getWidth(), source.getHeight());
+        DrawState state = DRAW_STATE.get();
+        Matrix matrix = state.matrix;
+        matrix.reset();
+        matrix.setScale(-1.0f, 1.0f);
+        matrix.postTranslate(source.getWidth(), 0);
+
+        Canvas canvas = state.canvas;
+        canvas.setBitmap(dest);
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.drawBitmap(source, matrix, null);
+        canvas.setBitmap(null);
+        return dest;
+    }
+
     /**
      * <p>Load a scaled down version into memory</p>
      *
@@ -92,6 +287,157 @@ public class ImageUtils {
         return BitmapFactory.decodeResource(res, resId, options);
     }
 
+    /**
+     * <p>Load a scaled down version of a stream into memory. The size is read by
+     * {@link ImageHeader}, which stops within a mark, so JPEG, PNG, WebP and GIF data is
+     * never buffered whole. Other formats, and headers beyond the scan limit, are
+     * buffered and decoded from memory. The stream is not closed.</p>
+     *
+     * @param in        stream of encoded image, not null
+     * @param reqWidth  the the required width.
+     * @param reqHeight the the required height.
+     * @return scaled bitmap or null if the stream could not be decoded
+     * @throws IOException when the stream can not be read
+     */
+    public static Bitmap decodeSampledBitmapFromStream(@NonNull InputStream in,
+                                                       int reqWidth,
+                                                       int reqHeight) throws IOException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        in.mark(ImageHeader.SCAN_LIMIT);
+        ImageHeader header = ImageHeader.parse(in);
+        in.reset();
+        if (header != null) {
+            options.inSampleSize = calculateInSampleSize(header, reqWidth, reqHeight);
+            return BitmapFactory.decodeStream(in, null, options);
+        }
+
+        // the bounds pass of the decoder may read any amount, it can not be rewound
+        byte[] data = readAll(in);
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * <p>Load a scaled down version of a file into memory</p>
+     *
+     * @param file      image file, not null
+     * @param reqWidth  the the required width.
+     * @param reqHeight the the required height.
+     * @return scaled bitmap or null if the file could not be decoded
+     */
+    public static Bitmap decodeSampledBitmapFromFile(@NonNull File file,
+                                                     int reqWidth,
+                                                     int reqHeight) {
+        final String path = file.getAbsolutePath();
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        ImageHeader header = null;
+        try {
+            header = ImageHeader.parse(file);
+        } catch (IOException e) {
+            // left to the decoder to report
+        }
+        if (header != null) {
+            options.inSampleSize = calculateInSampleSize(header, reqWidth, reqHeight);
+        } else {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(path, options);
+            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+            options.inJustDecodeBounds = false;
+        }
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    /**
+     * <p>Plan the decode of a file for a target size and memory budget, only the
+     * bounds of the image are read</p>
+     *
+     * @param file          image file, not null
+     * @param reqWidth      the the required width.
+     * @param reqHeight     the the required height.
+     * @param budgetBytes   maximum bytes the decode may allocate at once
+     * @param allowHardware use hardware bitmaps where available
+     * @return plan with the estimated allocation
+     */
+    public static DecodePlan planDecode(@NonNull File file,
+                                        int reqWidth,
+                                        int reqHeight,
+                                        long budgetBytes,
+                                        boolean allowHardware) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        return DecodePlan.create(options, reqWidth, reqHeight, budgetBytes, allowHardware);
+    }
+
+    /**
+     * <p>Decode a file as planned by {@link #planDecode}</p>
+     *
+     * @param file image file, not null
+     * @param plan the plan of the decode, not null
+     * @return bitmap of the planned size or null if the file could not be decoded
+     */
+    public static Bitmap decodeBitmap(@NonNull File file, @NonNull DecodePlan plan) {
+        return BitmapFactory.decodeFile(file.getAbsolutePath(), plan.applyTo(new BitmapFactory.Options()));
+    }
+
+    /**
+     * <p>Load a scaled down version of a file descriptor into memory. The descriptor
+     * offset is restored by the platform after every pass.</p>
+     *
+     * @param fd        seekable descriptor of encoded image, not null
+     * @param reqWidth  the the required width.
+     * @param reqHeight the the required height.
+     * @return scaled bitmap or null if the descriptor could not be decoded
+     */
+    public static Bitmap decodeSampledBitmapFromFileDescriptor(@NonNull FileDescriptor fd,
+                                                               int reqWidth,
+                                                               int reqHeight) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFileDescriptor(fd, null, options);
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFileDescriptor(fd, null, options);
+    }
+
+    /**
+     * <p>Load a scaled down version of a buffer into memory. Heap buffers are decoded
+     * in place, direct buffers are streamed so their content is never copied
+     * to the Java heap. Position and limit of the buffer are not altered.</p>
+     *
+     * @param buffer    encoded image between position and limit, not null
+     * @param reqWidth  the the required width.
+     * @param reqHeight the the required height.
+     * @return scaled bitmap or null if the buffer could not be decoded
+     */
+    public static Bitmap decodeSampledBitmapFromBuffer(@NonNull ByteBuffer buffer,
+                                                       int reqWidth,
+                                                       int reqHeight) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        if (buffer.hasArray()) {
+            byte[] data = buffer.array();
+            int offset = buffer.arrayOffset() + buffer.position();
+            int length = buffer.remaining();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, offset, length, options);
+            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+            options.inJustDecodeBounds = false;
+            return BitmapFactory.decodeByteArray(data, offset, length, options);
+        }
+
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(new ByteBufferInputStream(buffer), null, options);
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeStream(new ByteBufferInputStream(buffer), null, options);
+    }
+
     /**
      * This is a method for load a scaled down version into memory
      */
@@ -102,7 +448,8 @@ public class ImageUtils {
      * @param data          array of data
      * @param reqWidth      the the required width.
      * @param reqHeight     the the required height.
-     * @param rotationAngle at which the bitmap will be returned
+     * @param rotationAngle at which a landscape bitmap will be returned, used only when the
+     *                      image has no EXIF orientation
      * @return null if data is to big, (outOfMemory) if else return scaled bitmap with rotate
      */
     public static Bitmap decodeSampledBitmapResource(byte[] data,
@@ -110,31 +457,94 @@ public class ImageUtils {
                                                      int reqHeight,
                                                      int rotationAngle) {
         final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        ImageHeader header = parseHeader(data);
+        if (header != null) {
+            options.outWidth = header.getWidth();
+            options.outHeight = header.getHeight();
+        } else {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
 
-        if (reqWidth == -1) reqWidth = options.outWidth;
-        if (reqHeight == -1) reqHeight = options.outHeight;
+        // the EXIF orientation of the image wins over the angle of the caller
+        boolean oriented = header != null && header.getOrientation() != ImageHeader.ORIENTATION_NORMAL;
+        boolean transposed = oriented && header.getRotationDegrees() % 180 != 0;
+        int uprightWidth = transposed ? options.outHeight : options.outWidth;
+        int uprightHeight = transposed ? options.outWidth : options.outHeight;
 
-        float ratio = (float) options.outWidth / (float) options.outHeight;
+        if (reqWidth == -1) reqWidth = uprightWidth;
+        if (reqHeight == -1) reqHeight = uprightHeight;
+
+        float ratio = (float) uprightWidth / (float) uprightHeight;
         if (reqHeight == 0 && reqWidth > 0) reqHeight = (int) (reqWidth / ratio);
         if (reqWidth == 0 && reqHeight > 0) reqWidth = (int) (reqHeight * ratio);
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inSampleSize = transposed
+                ? calculateInSampleSize(options, reqHeight, reqWidth)
+                : calculateInSampleSize(options, reqWidth, reqHeight);
         options.inJustDecodeBounds = false;
 
-        Bitmap returnedBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
-
-        if (returnedBitmap.getWidth() > returnedBitmap.getHeight())
-            returnedBitmap = rotateBitmap(returnedBitmap, rotationAngle);
-
-        returnedBitmap = scaleCenterCrop(returnedBitmap, returnedBitmap.getWidth(), returnedBitmap.getWidth());
         try {
-            return mirrorBitmap(returnedBitmap);
+            Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (decoded == null) return null;
+
+            int angle;
+            boolean mirror = true;
+            if (oriented) {
+                // clockwise to upright; a flipped image is already mirrored
+                angle = (360 - header.getRotationDegrees()) % 360;
+                mirror = !header.isFlipped();
+            } else {
+                angle = decoded.getWidth() > decoded.getHeight() ? rotationAngle : 0;
+            }
+            Bitmap returnedBitmap = rotateCropMirror(decoded, angle, mirror);
+            decoded.recycle();
+            return returnedBitmap;
         } catch (OutOfMemoryError outOfMemoryError) {
             return null;
         }
     }
 
+    /**
+     * <p>Rotate, center crop to a square of the rotated width and mirror the bitmap
+     * in a single draw. Gives the same result as calling {@link #rotateBitmap},
+     * {@link #scaleCenterCrop} and {@link #mirrorBitmap} one after another, but
+     * allocates only the destination bitmap.</p>
+     *
+     * @param source the bitmap, not altered, not null.
+     * @param angle  at which the bitmap will be returned
+     * @param mirror false to leave out the mirroring
+     * @return new square bitmap
+     */
+    private static Bitmap rotateCropMirror(@NonNull Bitmap source, int angle, boolean mirror) {
+        DrawState state = DRAW_STATE.get();
+        Matrix matrix = state.matrix;
+        matrix.reset();
+        if (angle % 360 != 0) matrix.postRotate(360 - angle);
+
+        // Same bounds normalisation Bitmap.createBitmap applies to a rotated source
+        RectF bounds = state.dstRect;
+        bounds.set(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+
+        float rotatedWidth = bounds.width();
+        float rotatedHeight = bounds.height();
+        int side = Math.round(rotatedWidth);
+
+        float scale = Math.max(side / rotatedWidth, side / rotatedHeight);
+        matrix.postScale(scale, scale);
+        matrix.postTranslate((side - rotatedWidth * scale) / 2, (side - rotatedHeight * scale) / 2);
+        if (mirror) matrix.postScale(-1.0f, 1.0f, side / 2.0f, 0);
+
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap dest = Bitmap.createBitmap(side, side, config);
+        Canvas canvas = state.canvas;
+        canvas.setBitmap(dest);
+        canvas.drawBitmap(source, matrix, state.filterPaint);
+        canvas.setBitmap(null);
+        return dest;
+    }
+
     /**
      * <p>calculate a sample size value that is a power of two based on a target width and height</p>
      *
@@ -146,9 +556,24 @@ public class ImageUtils {
     public static int calculateInSampleSize(@NonNull BitmapFactory.Options options,
                                             int reqWidth,
                                             int reqHeight) {
-        // Raw height and width of image
-        final int height = options.outHeight;
-        final int width = options.outWidth;
+        return calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+    }
+
+    /**
+     * <p>calculate a sample size value that is a power of two based on a target width and height</p>
+     *
+     * @param header    header of the image, not null.
+     * @param reqWidth  the the required width.
+     * @param reqHeight the the required height.
+     * @return sample size value that is a power of two based on a target width and height
+     */
+    public static int calculateInSampleSize(@NonNull ImageHeader header,
+                                            int reqWidth,
+                                            int reqHeight) {
+        return calculateInSampleSize(header.getWidth(), header.getHeight(), reqWidth, reqHeight);
+    }
+
+    private static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
         int inSampleSize = 1;
 
         if (height > reqHeight || width > reqWidth) {
@@ -193,6 +618,36 @@ public class ImageUtils {
         return dest;
     }
 
+    /**
+     * <p>Scale bitmap with centerCrop type into a reusable destination, no bitmap is allocated</p>
+     *
+     * @param source the bitmap, not altered, not null.
+     * @param dest   mutable bitmap of the required size, altered, not null.
+     * @return dest
+     */
+    public static Bitmap scaleCenterCrop(@NonNull Bitmap source, @NonNull Bitmap dest) {
+        checkDestination(dest, dest.getWidth(), dest.getHeight());
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        int newWidth = dest.getWidth();
+        int newHeight = dest.getHeight();
+
+        float scale = Math.max((float) newWidth / sourceWidth, (float) newHeight / sourceHeight);
+        float scaledWidth = scale * sourceWidth;
+        float scaledHeight = scale * sourceHeight;
+        float left = (newWidth - scaledWidth) / 2;
+        float top = (newHeight - scaledHeight) / 2;
+
+        DrawState state = DRAW_STATE.get();
+        state.dstRect.set(left, top, left + scaledWidth, top + scaledHeight);
+        Canvas canvas = state.canvas;
+        canvas.setBitmap(dest);
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.drawBitmap(source, null, state.dstRect, null);
+        canvas.setBitmap(null);
+        return dest;
+    }
+
     /**
      * <p>Trim bitmap to square</p>
      *
@@ -212,6 +667,32 @@ public class ImageUtils {
         return src;
     }
 
+    /**
+     * <p>Trim bitmap to square into a reusable destination, no bitmap is allocated</p>
+     *
+     * @param src  the bitmap, not altered, not null.
+     * @param dest mutable square bitmap with the side of the smaller side of src, altered, not null.
+     * @return dest
+     */
+    public static Bitmap trimToSquare(@NonNull Bitmap src, @NonNull Bitmap dest) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int side = Math.min(width, height);
+        checkDestination(dest, side, side);
+
+        DrawState state = DRAW_STATE.get();
+        int left = (width - side) / 2;
+        int top = (height - side) / 2;
+        state.srcRect.set(left, top, left + side, top + side);
+        state.dstRect.set(0, 0, side, side);
+        Canvas canvas = state.canvas;
+        canvas.setBitmap(dest);
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.drawBitmap(src, state.srcRect, state.dstRect, null);
+        canvas.setBitmap(null);
+        return dest;
+    }
+
     /**
      * <p>Save bitmap to file</p>
      *
@@ -221,20 +702,157 @@ public class ImageUtils {
      * @throws IOException
      */
     public static File saveBitmapToFile(String name, Bitmap bmp) throws IOException {
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        bmp.compress(Bitmap.CompressFormat.JPEG, 60, bytes);
+        return saveBitmapToFile(name, bmp, Bitmap.CompressFormat.JPEG, 60);
+    }
+
+    /**
+     * <p>Save bitmap to file in the given format, the image is encoded straight to disk</p>
+     *
+     * @param name    the name of bitmap, without extension
+     * @param bmp     the bitmap, not altered, not null.
+     * @param format  format of the encoded image, defines the file extension
+     * @param quality hint to the compressor, 0-100
+     * @return return file or null when unsuccessful creating file
+     * @throws IOException
+     */
+    public static File saveBitmapToFile(String name,
+                                        @NonNull Bitmap bmp,
+                                        @NonNull Bitmap.CompressFormat format,
+                                        int quality) throws IOException {
         File file = new File(Environment.getExternalStorageDirectory()
-                + File.separator + name + ".jpg");
+                + File.separator + name + FileUtils.getExtension(format));
+        if (!file.createNewFile()) {
+            return null;
+        }
+        File saved = FileUtils.saveBitmapToFile(file, bmp, format, quality);
+        if (saved == null) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        return saved;
+    }
 
-        boolean isSuccess = file.createNewFile();
-        if (isSuccess) {
-            FileOutputStream fo = new FileOutputStream(file);
-            fo.write(bytes.toByteArray());
-            fo.close();
-            return file;
+    private static int[] grayPixels(Bitmap source, int width, int height) {
+        Bitmap small = Bitmap.createScaledBitmap(source, width, height, true);
+        int[] pixels = new int[width * height];
+        small.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (small != source) small.recycle();
+        PerceptualHash.toGray(pixels, pixels);
+        return pixels;
+    }
 
-        } else {
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(STREAM_BUFFER_SIZE);
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private static ImageHeader parseHeader(byte[] data) {
+        try {
+            return ImageHeader.parse(new ByteArrayInputStream(data));
+        } catch (IOException e) {
             return null;
         }
     }
+
+    private static Bitmap reuseBitmap(@Nullable Bitmap reuse, int width, int height, Bitmap.Config config) {
+        if (reuse == null || reuse.isRecycled() || !reuse.isMutable()) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        if (reuse.getWidth() == width && reuse.getHeight() == height && reuse.getConfig() == config) {
+            reuse.eraseColor(Color.TRANSPARENT);
+            return reuse;
+        }
+        if (reuse.getAllocationByteCount() >= (long) width * height * DecodePlan.bytesPerPixel(config)) {
+            reuse.reconfigure(width, height, config);
+            reuse.eraseColor(Color.TRANSPARENT);
+            return reuse;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    private static void checkDestination(@NonNull Bitmap dest, int width, int height) {
+        if (!dest.isMutable()) {
+            throw new IllegalArgumentException("Destination bitmap must be mutable");
+        }
+        if (dest.getWidth() != width || dest.getHeight() != height) {
+            throw new IllegalArgumentException("Destination bitmap must be " + width + "x" + height
+                    + ", was " + dest.getWidth() + "x" + dest.getHeight());
+        }
+    }
+
+    /**
+     * Blur threads, started on the first blur
+     */
+    private static final class Blur {
+        static final StackBlur STACK_BLUR = new StackBlur();
+    }
+
+    /**
+     * Drawing objects reused by every draw on a thread
+     */
+    private static class DrawState {
+        final Canvas canvas = new Canvas();
+        final Matrix matrix = new Matrix();
+        final Paint filterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        final Rect srcRect = new Rect();
+        final RectF dstRect = new RectF();
+    }
+
+    /**
+     * Reads a private view of a buffer without copying it to the heap
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer source) {
+            buffer = source.duplicate();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
 }
@@ -0,0 +1,491 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads lines of a text file through a memory mapping.
+ * <p>
+ * The file is mapped in windows, so files larger than 2 GB can be read, and every line
+ * is handed out as the same reusable {@link Text} view over the mapped bytes. Iterating
+ * does not allocate: ASCII lines are read straight from the mapping and UTF-8 lines are
+ * decoded on first access into a buffer reused for the following lines. Lines end with
+ * {@code \n} or {@code \r\n}. A file can be {@link #split} at line boundaries to be
+ * read on several threads.
+ * <p>
+ * Mappings are released by the garbage collector, not by {@link #close}.
+ */
+
+public class MappedLineReader implements Closeable {
+
+    public static final int DEFAULT_WINDOW_SIZE = 32 * 1024 * 1024;
+
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+    private static final int SPLIT_SCAN_SIZE = 8 * 1024;
+
+    public interface LineVisitor {
+        /**
+         * @param line the line, only valid during the call
+         * @return false to stop reading
+         */
+        boolean onLine(@NonNull Text line);
+    }
+
+    public interface RecordVisitor {
+        /**
+         * @param record the record, only valid during the call
+         * @return false to stop reading
+         */
+        boolean onRecord(@NonNull Record record);
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long end;
+    private final int windowSize;
+    private final Text line = new Text();
+    private final Record record = new Record();
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    /**
+     * <p>Open a reader over the whole file</p>
+     *
+     * @param file the text file, not null
+     */
+    public static MappedLineReader open(@NonNull File file) throws IOException {
+        return new MappedLineReader(file, 0, -1, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * <p>Open readers over consecutive parts of a file, each part starts at the beginning
+     * of a line. Small files give fewer parts.</p>
+     *
+     * @param file       the text file, not null
+     * @param parts      the wanted number of parts
+     * @param windowSize bytes mapped at once by each reader
+     * @return readers in file order, to be closed by the caller
+     */
+    public static List<MappedLineReader> split(@NonNull File file, int parts, int windowSize) throws IOException {
+        long size = file.length();
+        List<Long> starts = new ArrayList<>(parts);
+        starts.add(0L);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer scan = ByteBuffer.allocate(SPLIT_SCAN_SIZE);
+            for (int i = 1; i < parts; i++) {
+                long start = lineStartAfter(channel, scan, size * i / parts, size);
+                if (start > starts.get(starts.size() - 1) && start < size) starts.add(start);
+            }
+        } finally {
+            FileUtils.closeQuietly(raf);
+        }
+
+        List<MappedLineReader> readers = new ArrayList<>(starts.size());
+        try {
+            for (int i = 0; i < starts.size(); i++) {
+                long partEnd = i + 1 < starts.size() ? starts.get(i + 1) : size;
+                readers.add(new MappedLineReader(file, starts.get(i), partEnd, windowSize));
+            }
+        } catch (IOException e) {
+            for (MappedLineReader reader : readers) {
+                FileUtils.closeQuietly(reader);
+            }
+            throw e;
+        }
+        return readers;
+    }
+
+    /**
+     * @param start      file position of the first line
+     * @param end        file position after the last line or -1 for the end of the file
+     * @param windowSize bytes mapped at once, grown for lines that do not fit
+     */
+    private MappedLineReader(File file, long start, long end, int windowSize) throws IOException {
+        if (windowSize <= 0) throw new IllegalArgumentException("Window size must be positive");
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.end = end < 0 ? channel.size() : end;
+        this.windowSize = windowSize;
+        this.position = start;
+    }
+
+    /**
+     * <p>Read lines from the current position</p>
+     *
+     * @param visitor receives every line, not null
+     * @return number of lines visited
+     */
+    @WorkerThread
+    public long forEachLine(@NonNull LineVisitor visitor) throws IOException {
+        long count = 0;
+        while (nextLine(line)) {
+            count++;
+            if (!visitor.onLine(line)) break;
+        }
+        return count;
+    }
+
+    /**
+     * <p>Read lines from the current position as records of fields. Quotes are not
+     * interpreted, every delimiter separates two fields.</p>
+     *
+     * @param delimiter ASCII field separator, e.g. ',' or '\t'
+     * @param visitor   receives every record, not null
+     * @return number of records visited
+     */
+    @WorkerThread
+    public long forEachRecord(char delimiter, @NonNull RecordVisitor visitor) throws IOException {
+        if (delimiter >= 0x80) throw new IllegalArgumentException("Delimiter must be ASCII");
+        long count = 0;
+        while (nextLine(line)) {
+            count++;
+            record.set(line, (byte) delimiter);
+            if (!visitor.onRecord(record)) break;
+        }
+        return count;
+    }
+
+    /**
+     * @return file position of the next line
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return file position after the last line of this reader
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    private boolean nextLine(Text out) throws IOException {
+        if (position >= end) return false;
+        int size = windowSize;
+        while (true) {
+            if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+                map(position, size);
+            }
+            int from = (int) (position - windowStart);
+            int limit = window.limit();
+            boolean ascii = true;
+            int i = from;
+            while (i < limit) {
+                byte b = window.get(i);
+                if (b == '\n') break;
+                if (b < 0) ascii = false;
+                i++;
+            }
+
+            int next;
+            if (i < limit) {
+                next = i + 1;
+            } else if (windowStart + limit >= end) {
+                next = limit;
+            } else {
+                // the line continues past the window, map again from its start
+                if (windowStart == position) {
+                    if (size >= MAX_WINDOW_SIZE) throw new IOException("Line at " + position + " is too long");
+                    size = (int) Math.min(MAX_WINDOW_SIZE, size * 2L);
+                }
+                map(position, size);
+                continue;
+            }
+
+            int lineEnd = i;
+            if (lineEnd > from && window.get(lineEnd - 1) == '\r') lineEnd--;
+            out.set(window, from, lineEnd, position, ascii);
+            position = windowStart + next;
+            return true;
+        }
+    }
+
+    private void map(long start, int size) throws IOException {
+        long length = Math.min(size, end - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        windowStart = start;
+    }
+
+    /**
+     * @return position after the first line break at or after from, or size
+     */
+    private static long lineStartAfter(FileChannel channel, ByteBuffer scan, long from, long size)
+            throws IOException {
+        // from itself may be a line start when the byte before it is a line break
+        long position = Math.max(0, from - 1);
+        while (position < size) {
+            scan.clear();
+            int read = channel.read(scan, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (scan.get(i) == '\n') return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Text of a line or field, a view over mapped bytes valid until the reader moves on
+     */
+    public static final class Text implements CharSequence {
+        private ByteBuffer buffer;
+        private int start;
+        private int end;
+        private long filePosition;
+        private boolean ascii;
+        private boolean decoded;
+        private char[] chars = new char[256];
+        private int charCount;
+
+        void set(ByteBuffer buffer, int start, int end, long filePosition, boolean ascii) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.filePosition = filePosition;
+            this.ascii = ascii;
+            this.decoded = false;
+        }
+
+        /**
+         * @return file position of the first byte
+         */
+        public long getFilePosition() {
+            return filePosition;
+        }
+
+        /**
+         * @return length in bytes, without the line break
+         */
+        public int getByteLength() {
+            return end - start;
+        }
+
+        public byte byteAt(int index) {
+            return buffer.get(start + index);
+        }
+
+        /**
+         * @return true if every character is ASCII, no decoding is needed then
+         */
+        public boolean isAscii() {
+            return ascii;
+        }
+
+        @Override
+        public int length() {
+            if (ascii) return end - start;
+            decode();
+            return charCount;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (ascii) {
+                if (index < 0 || index >= end - start) throw new IndexOutOfBoundsException("Index " + index);
+                return (char) buffer.get(start + index);
+            }
+            decode();
+            if (index >= charCount) throw new IndexOutOfBoundsException("Index " + index);
+            return chars[index];
+        }
+
+        /**
+         * Allocates, unlike the rest of the view
+         */
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        /**
+         * <p>Parse the text as a decimal number without allocating</p>
+         *
+         * @throws NumberFormatException when the text is not a number
+         */
+        public long parseLong() {
+            int i = start;
+            boolean negative = false;
+            if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negative = buffer.get(i) == '-';
+                i++;
+            }
+            if (i == end) throw new NumberFormatException("Not a number at " + filePosition);
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) throw new NumberFormatException("Not a number at " + filePosition);
+                // accumulate negatively so Long.MIN_VALUE fits
+                if (value < (Long.MIN_VALUE + digit) / 10) {
+                    throw new NumberFormatException("Number too large at " + filePosition);
+                }
+                value = value * 10 - digit;
+            }
+            if (negative) return value;
+            if (value == Long.MIN_VALUE) throw new NumberFormatException("Number too large at " + filePosition);
+            return -value;
+        }
+
+        /**
+         * <p>Compare with other text without allocating</p>
+         */
+        public boolean contentEquals(@NonNull CharSequence other) {
+            int length = length();
+            if (other.length() != length) return false;
+            for (int i = 0; i < length; i++) {
+                if (charAt(i) != other.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            if (!ascii) {
+                decode();
+                return new String(chars, 0, charCount);
+            }
+            char[] copy = new char[end - start];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = (char) buffer.get(start + i);
+            }
+            return new String(copy);
+        }
+
+        /**
+         * UTF-8 to UTF-16, malformed sequences become U+FFFD
+         */
+        private void decode() {
+            if (decoded) return;
+            if (chars.length < end - start) chars = new char[Math.max(end - start, chars.length * 2)];
+            int count = 0;
+            int i = start;
+            while (i < end) {
+                int b = buffer.get(i++);
+                if (b >= 0) {
+                    chars[count++] = (char) b;
+                    continue;
+                }
+                int need;
+                int codePoint;
+                int min;
+                if ((b & 0xE0) == 0xC0) {
+                    need = 1;
+                    codePoint = b & 0x1F;
+                    min = 0x80;
+                } else if ((b & 0xF0) == 0xE0) {
+                    need = 2;
+                    codePoint = b & 0x0F;
+                    min = 0x800;
+                } else if ((b & 0xF8) == 0xF0) {
+                    need = 3;
+                    codePoint = b & 0x07;
+                    min = 0x10000;
+                } else {
+                    chars[count++] = '\uFFFD';
+                    continue;
+                }
+                int read = 0;
+                while (read < need && i < end && (buffer.get(i) & 0xC0) == 0x80) {
+                    codePoint = codePoint << 6 | (buffer.get(i++) & 0x3F);
+                    read++;
+                }
+                if (read < need || codePoint < min || codePoint > Character.MAX_CODE_POINT
+                        || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                    chars[count++] = '\uFFFD';
+                } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    chars[count++] = Character.highSurrogate(codePoint);
+                    chars[count++] = Character.lowSurrogate(codePoint);
+                } else {
+                    chars[count++] = (char) codePoint;
+                }
+            }
+            charCount = count;
+            decoded = true;
+        }
+    }
+
+    /**
+     * Fields of a line split at a delimiter, valid until the reader moves on
+     */
+    public static final class Record {
+        private final Text field = new Text();
+        private Text line;
+        private int[] bounds = new int[32];
+        private int fieldCount;
+
+        void set(Text line, byte delimiter) {
+            this.line = line;
+            int count = 0;
+            int fieldStart = line.start;
+            for (int i = line.start; i <= line.end; i++) {
+                if (i == line.end || line.buffer.get(i) == delimiter) {
+                    if (bounds.length < (count + 1) * 2) {
+                        int[] grown = new int[bounds.length * 2];
+                        System.arraycopy(bounds, 0, grown, 0, bounds.length);
+                        bounds = grown;
+                    }
+                    bounds[count * 2] = fieldStart;
+                    bounds[count * 2 + 1] = i;
+                    count++;
+                    fieldStart = i + 1;
+                }
+            }
+            fieldCount = count;
+        }
+
+        /**
+         * @return the whole line
+         */
+        public Text getLine() {
+            return line;
+        }
+
+        public int getFieldCount() {
+            return fieldCount;
+        }
+
+        /**
+         * <p>Get a field, the returned view is reused by the next call</p>
+         *
+         * @param index index of the field
+         * @return text of the field
+         */
+        public Text getField(int index) {
+            if (index < 0 || index >= fieldCount) throw new IndexOutOfBoundsException("Field " + index);
+            int fieldStart = bounds[index * 2];
+            int fieldEnd = bounds[index * 2 + 1];
+            boolean ascii = line.ascii || isAscii(line.buffer, fieldStart, fieldEnd);
+            field.set(line.buffer, fieldStart, fieldEnd,
+                    line.filePosition + (fieldStart - line.start), ascii);
+            return field;
+        }
+
+        private static boolean isAscii(ByteBuffer buffer, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (buffer.get(i) < 0) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package com.indeema.library.androidutils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects the MIME type of files from their first bytes.
+ * <p>
+ * The leading bytes are matched against a table of signatures indexed by their first
+ * byte, so a lookup only compares the few signatures that can match. Files without a
+ * known signature fall back to their extension, looked up in a trie without cutting the
+ * name. A known extension also wins over weak signatures, which are short or shared by
+ * other formats. Results are cached by uri together with the modification time and size
+ * of the file, so a folder listed again is not read again until its files change.
+ */
+
+public class MimeDetector {
+
+    public static final String MIME_UNKNOWN = "";
+
+    public static final int DEFAULT_CACHE_SIZE = 512;
+
+    /**
+     * Bytes read from every file, enough for the longest signature
+     */
+    private static final int HEADER_SIZE = 16;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String ZIP = "application/zip";
+
+    /**
+     * Stamp of content whose provider reports neither size nor modification time
+     */
+    private static final long NO_STAMP = Long.MIN_VALUE;
+    private static final String[] STAMP_COLUMNS = {
+            OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_LAST_MODIFIED};
+
+    private static class Signature {
+        final int offset;
+        final byte[] bytes;
+        final String mimeType;
+        final boolean weak;
+
+        Signature(int offset, byte[] bytes, String mimeType, boolean weak) {
+            this.offset = offset;
+            this.bytes = bytes;
+            this.mimeType = mimeType;
+            this.weak = weak;
+        }
+
+        boolean matches(byte[] header, int length) {
+            if (offset + bytes.length > length) return false;
+            for (int i = 0; i < bytes.length; i++) {
+                if (header[offset + i] != bytes[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class CacheEntry {
+        final long stamp;
+        final String mimeType;
+
+        CacheEntry(long stamp, String mimeType) {
+            this.stamp = stamp;
+            this.mimeType = mimeType;
+        }
+    }
+
+    private static final class TrieNode {
+        final char key;
+        String mimeType;
+        TrieNode[] children = new TrieNode[0];
+
+        TrieNode(char key) {
+            this.key = key;
+        }
+
+        TrieNode child(char c) {
+            for (TrieNode child : children) {
+                if (child.key == c) return child;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Signatures at offset 0 by their first byte, the others are always tried
+     */
+    private final Signature[][] signaturesByFirstByte = new Signature[256][];
+    private final Signature[] offsetSignatures;
+    private final TrieNode extensions = new TrieNode('\0');
+    private final LruCache<String, CacheEntry> cache;
+    private final ThreadLocal<byte[]> headers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[HEADER_SIZE];
+        }
+    };
+
+    public MimeDetector() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize number of results kept
+     */
+    public MimeDetector(int cacheSize) {
+        cache = new LruCache<>(cacheSize);
+
+        List<Signature> all = new ArrayList<>();
+        // longer signatures of the same first byte come first
+        all.add(signature(0, "89 50 4E 47 0D 0A 1A 0A", ImageHeader.MIME_PNG));
+        all.add(signature(0, "FF D8 FF", ImageHeader.MIME_JPEG));
+        all.add(signature(0, "GIF87a", ImageHeader.MIME_GIF));
+        all.add(signature(0, "GIF89a", ImageHeader.MIME_GIF));
+        all.add(riff("WEBP", ImageHeader.MIME_WEBP));
+        all.add(riff("WAVE", "audio/x-wav"));
+        all.add(riff("AVI ", "video/avi"));
+        all.add(weakSignature(0, "BM", "image/x-ms-bmp"));
+        all.add(signature(0, "49 49 2A 00", "image/tiff"));
+        all.add(signature(0, "4D 4D 00 2A", "image/tiff"));
+        all.add(signature(0, "00 00 01 00", "image/x-icon"));
+        all.add(signature(0, "%PDF-", "application/pdf"));
+        // zip also starts documents and packages
+        all.add(weakSignature(0, "50 4B 03 04", ZIP));
+        all.add(weakSignature(0, "1F 8B", "application/gzip"));
+        all.add(signature(0, "37 7A BC AF 27 1C", "application/x-7z-compressed"));
+        all.add(signature(0, "Rar!", "application/rar"));
+        all.add(weakSignature(0, "ID3", "audio/mpeg"));
+        all.add(weakSignature(0, "FF FB", "audio/mpeg"));
+        all.add(signature(0, "OggS", "audio/ogg"));
+        all.add(signature(0, "fLaC", "audio/flac"));
+        all.add(signature(0, "1A 45 DF A3", "video/x-matroska"));
+        all.add(signature(4, "ftypheic", "image/heic"));
+        all.add(signature(4, "ftypheix", "image/heic"));
+        all.add(signature(4, "ftypmif1", "image/heif"));
+        all.add(signature(4, "ftypqt  ", "video/quicktime"));
+        all.add(signature(4, "ftyp3gp", "video/3gpp"));
+        all.add(signature(4, "ftypM4A ", "audio/mp4"));
+        all.add(signature(4, "ftyp", "video/mp4"));
+
+        List<Signature> offset = new ArrayList<>();
+        List<List<Signature>> byFirstByte = new ArrayList<>(256);
+        for (int i = 0; i < 256; i++) {
+            byFirstByte.add(null);
+        }
+        for (Signature signature : all) {
+            if (signature.offset != 0) {
+                offset.add(signature);
+                continue;
+            }
+            int first = signature.bytes[0] & 0xFF;
+            if (byFirstByte.get(first) == null) byFirstByte.set(first, new ArrayList<Signature>(2));
+            byFirstByte.get(first).add(signature);
+        }
+        for (int i = 0; i < 256; i++) {
+            List<Signature> list = byFirstByte.get(i);
+            if (list != null) signaturesByFirstByte[i] = list.toArray(new Signature[0]);
+        }
+        offsetSignatures = offset.toArray(new Signature[0]);
+
+        String[][] table = {
+                {"jpg", ImageHeader.MIME_JPEG}, {"jpeg", ImageHeader.MIME_JPEG}, {"png", ImageHeader.MIME_PNG},
+                {"gif", ImageHeader.MIME_GIF}, {"webp", ImageHeader.MIME_WEBP}, {"bmp", "image/x-ms-bmp"},
+                {"heic", "image/heic"}, {"heif", "image/heif"}, {"tif", "image/tiff"}, {"tiff", "image/tiff"},
+                {"ico", "image/x-icon"}, {"svg", "image/svg+xml"},
+                {"pdf", "application/pdf"}, {"zip", ZIP}, {"gz", "application/gzip"},
+                {"7z", "application/x-7z-compressed"}, {"rar", "application/rar"},
+                {"apk", "application/vnd.android.package-archive"}, {"json", "application/json"},
+                {"doc", "application/msword"},
+                {"docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"},
+                {"xls", "application/vnd.ms-excel"},
+                {"xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"},
+                {"txt", "text/plain"}, {"log", "text/plain"}, {"csv", "text/comma-separated-values"},
+                {"htm", "text/html"}, {"html", "text/html"}, {"xml", "text/xml"},
+                {"mp3", "audio/mpeg"}, {"m4a", "audio/mp4"}, {"ogg", "audio/ogg"}, {"flac", "audio/flac"},
+                {"wav", "audio/x-wav"}, {"mp4", "video/mp4"}, {"m4v", "video/mp4"}, {"3gp", "video/3gpp"},
+                {"mov", "video/quicktime"}, {"mkv", "video/x-matroska"}, {"webm", "video/webm"},
+                {"avi", "video/avi"},
+        };
+        for (String[] row : table) {
+            addExtension(row[0], row[1]);
+        }
+    }
+
+    /**
+     * <p>Detect the type of a file, reading at most a few bytes</p>
+     *
+     * @param file the file, not null
+     * @return the type or {@link #MIME_UNKNOWN}
+     */
+    @NonNull
+    @WorkerThread
+    public String detect(@NonNull File file) {
+        String key = file.getPath();
+        long stamp = file.lastModified() * 31 + file.length();
+        CacheEntry cached = cache.get(key);
+        if (cached != null && cached.stamp == stamp) return cached.mimeType;
+
+        Signature signature = null;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                signature = read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // left to the extension
+        }
+        String detected = signature == null ? null : signature.mimeType;
+        String type = refine(detected, signature == null || signature.weak, file.getName());
+        cache.put(key, new CacheEntry(stamp, type));
+        return type;
+    }
+
+    /**
+     * <p>Detect the type of a content or file uri. Content uris are typed by their
+     * provider when it can, otherwise their first bytes are read. Types read from the
+     * bytes are cached only when the provider reports their size or modification time.</p>
+     *
+     * @param context the context
+     * @param uri     the uri, not null
+     * @return the type or {@link #MIME_UNKNOWN}
+     */
+    @NonNull
+    @WorkerThread
+    public String detect(@NonNull Context context, @NonNull Uri uri) {
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            String path = uri.getPath();
+            return path == null ? MIME_UNKNOWN : detect(new File(path));
+        }
+
+        ContentResolver resolver = context.getContentResolver();
+        String segment = uri.getLastPathSegment();
+        String name = segment == null ? "" : segment;
+        String type = resolver.getType(uri);
+        if (type != null) return refine(type, ZIP.equals(type), name);
+
+        // only reading the bytes is worth the query for the stamp
+        String key = uri.toString();
+        long stamp = contentStamp(resolver, uri);
+        if (stamp != NO_STAMP) {
+            CacheEntry cached = cache.get(key);
+            if (cached != null && cached.stamp == stamp) return cached.mimeType;
+        }
+
+        Signature signature = null;
+        try {
+            InputStream in = resolver.openInputStream(uri);
+            if (in != null) {
+                try {
+                    signature = read(in);
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            // left to the extension
+        }
+        String detected = signature == null ? null : signature.mimeType;
+        type = refine(detected, signature == null || signature.weak, name);
+        if (stamp != NO_STAMP) cache.put(key, new CacheEntry(stamp, type));
+        return type;
+    }
+
+    /**
+     * <p>Detect the type from the current position of a stream, the stream is advanced
+     * by a few bytes and not closed</p>
+     *
+     * @param in the stream, not null
+     * @return the type or null if no signature matches
+     */
+    @Nullable
+    public String detect(@NonNull InputStream in) throws IOException {
+        Signature signature = read(in);
+        return signature == null ? null : signature.mimeType;
+    }
+
+    /**
+     * <p>Match leading bytes against the signatures</p>
+     *
+     * @param header the leading bytes, not altered, not null
+     * @param length number of valid bytes in header
+     * @return the type or null if no signature matches
+     */
+    @Nullable
+    public String match(@NonNull byte[] header, int length) {
+        Signature signature = find(header, length);
+        return signature == null ? null : signature.mimeType;
+    }
+
+    /**
+     * <p>Look up the type of the extension of a name in any case</p>
+     *
+     * @param name a file name or path, not null
+     * @return the type or {@link #MIME_UNKNOWN}
+     */
+    @NonNull
+    public String fromExtension(@NonNull CharSequence name) {
+        int dot = name.length() - 1;
+        while (dot >= 0 && name.charAt(dot) != '.' && name.charAt(dot) != '/') {
+            dot--;
+        }
+        if (dot < 0 || name.charAt(dot) != '.') return MIME_UNKNOWN;
+
+        TrieNode node = extensions;
+        for (int i = dot + 1; i < name.length() && node != null; i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            node = node.child(c);
+        }
+        return node == null || node.mimeType == null ? MIME_UNKNOWN : node.mimeType;
+    }
+
+    /**
+     * <p>Drop all cached results</p>
+     */
+    public void clearCache() {
+        cache.evictAll();
+    }
+
+    @Nullable
+    private Signature read(InputStream in) throws IOException {
+        byte[] header = headers.get();
+        int length = 0;
+        int count;
+        while (length < header.length && (count = in.read(header, length, header.length - length)) > 0) {
+            length += count;
+        }
+        return find(header, length);
+    }
+
+    @Nullable
+    private Signature find(byte[] header, int length) {
+        if (length == 0) return null;
+        Signature[] candidates = signaturesByFirstByte[header[0] & 0xFF];
+        if (candidates != null) {
+            for (Signature signature : candidates) {
+                if (signature.matches(header, length)) return signature;
+            }
+        }
+        for (Signature signature : offsetSignatures) {
+            if (signature.matches(header, length)) return signature;
+        }
+        return null;
+    }
+
+    /**
+     * Fall back to the extension when the bytes gave nothing, and prefer a known
+     * extension over a weak type
+     */
+    private String refine(@Nullable String detected, boolean weak, CharSequence name) {
+        if (detected != null && !weak) return detected;
+        String byExtension = fromExtension(name);
+        if (detected == null || !byExtension.equals(MIME_UNKNOWN)) return byExtension;
+        return detected;
+    }
+
+    /**
+     * Stamp of a content uri from the size and modification time its provider reports
+     *
+     * @return the stamp or {@link #NO_STAMP} when the provider reports neither
+     */
+    private static long contentStamp(ContentResolver resolver, Uri uri) {
+        try {
+            Cursor cursor = resolver.query(uri, STAMP_COLUMNS, null, null, null);
+            if (cursor == null) return NO_STAMP;
+            try {
+                if (!cursor.moveToFirst()) return NO_STAMP;
+                long size = getLong(cursor, OpenableColumns.SIZE);
+                long modified = getLong(cursor, DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                if (size == NO_STAMP && modified == NO_STAMP) return NO_STAMP;
+                return (modified == NO_STAMP ? 0 : modified) * 31 + (size == NO_STAMP ? 0 : size);
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            // providers throw anything from SecurityException to UnsupportedOperationException
+            return NO_STAMP;
+        }
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index < 0 || cursor.isNull(index) ? NO_STAMP : cursor.getLong(index);
+    }
+
+    private void addExtension(String extension, String mimeType) {
+        TrieNode node = extensions;
+        for (int i = 0; i < extension.length(); i++) {
+            char c = extension.charAt(i);
+            TrieNode child = node.child(c);
+            if (child == null) {
+                child = new TrieNode(c);
+                TrieNode[] grown = new TrieNode[node.children.length + 1];
+                System.arraycopy(node.children, 0, grown, 0, node.children.length);
+                grown[node.children.length] = child;
+                node.children = grown;
+            }
+            node = child;
+        }
+        node.mimeType = mimeType;
+    }
+
+    /**
+     * @param pattern hex bytes separated by spaces or ASCII text
+     */
+    private static Signature signature(int offset, String pattern, String mimeType) {
+        byte[] bytes;
+        if (pattern.matches("([0-9A-F]{2} )*[0-9A-F]{2}")) {
+            String[] hex = pattern.split(" ");
+            bytes = new byte[hex.length];
+            for (int i = 0; i < hex.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex[i], 16);
+            }
+        } else {
+            bytes = pattern.getBytes(ASCII);
+        }
+        return new Signature(offset, bytes, mimeType, false);
+    }
+
+    /**
+     * Signature a known extension wins over
+     */
+    private static Signature weakSignature(int offset, String pattern, String mimeType) {
+        Signature signature = signature(offset, pattern, mimeType);
+        return new Signature(signature.offset, signature.bytes, mimeType, true);
+    }
+
+    /**
+     * RIFF container, the form type follows the chunk size
+     */
+    private static Signature riff(String form, String mimeType) {
+        return new RiffSignature(form.getBytes(ASCII), mimeType);
+    }
+
+    private static final class RiffSignature extends Signature {
+        private static final byte[] RIFF = {'R', 'I', 'F', 'F'};
+        private final byte[] form;
+
+        RiffSignature(byte[] form, String mimeType) {
+            super(0, RIFF, mimeType, false);
+            this.form = form;
+        }
+
+        @Override
+        boolean matches(byte[] header, int length) {
+            if (length < 12 || !super.matches(header, length)) return false;
+            for (int i = 0; i < form.length; i++) {
+                if (header[8 + i] != form[i]) return false;
+            }
+            return true;
+        }
+    }
+}
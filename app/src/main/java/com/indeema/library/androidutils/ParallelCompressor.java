@@ -0,0 +1,485 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzip and zip archives, deflating blocks of the input on several threads.
+ * <p>
+ * The input is cut into blocks which are deflated in parallel by pooled {@link Deflater}s.
+ * Every block is primed with the last 32 KB of the block before it and ends on a sync
+ * flush, so the compressed blocks join into one standard deflate stream with nearly the
+ * ratio of a single thread. The calling thread reads the input, computes the CRC and
+ * writes finished blocks in order; only a few blocks per thread are in memory at a time.
+ * <p>
+ * Zip archives are written without zip64 extensions, so entries and archives are limited
+ * to 4 GB and 65535 entries.
+ */
+
+public class ParallelCompressor implements Closeable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * Deflate window, the most of the previous block a block can refer to
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int BLOCKS_PER_THREAD = 2;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private static final int ZIP_LOCAL_HEADER = 0x04034b50;
+    private static final int ZIP_DATA_DESCRIPTOR = 0x08074b50;
+    private static final int ZIP_CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP_END = 0x06054b50;
+    private static final int ZIP_VERSION = 20;
+    /**
+     * Sizes follow the data, names are UTF-8
+     */
+    private static final int ZIP_FLAGS = 0x0808;
+    private static final long ZIP_MAX = 0xFFFFFFFFL;
+    private static final int ZIP_MAX_ENTRIES = 0xFFFF;
+
+    private final int threads;
+    private final int blockSize;
+    private final int level;
+    private final ExecutorService executor;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<byte[]> outputBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Deflated block, in the order of the input
+     */
+    private static final class Block {
+        final byte[] input;
+        final byte[] dictionary;
+        byte[] output;
+        int outputLength;
+
+        Block(byte[] input, byte[] dictionary) {
+            this.input = input;
+            this.dictionary = dictionary;
+        }
+    }
+
+    /**
+     * Sizes of a deflated stream
+     */
+    private static final class Deflated {
+        long crc;
+        long size;
+        long compressedSize;
+    }
+
+    public ParallelCompressor(int threads) {
+        this(threads, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param threads   number of blocks deflated at the same time
+     * @param blockSize bytes of input per block, at least 32 KB
+     * @param level     deflate level, e.g. {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public ParallelCompressor(int threads, int blockSize, int level) {
+        if (blockSize < DICTIONARY_SIZE) throw new IllegalArgumentException("Block size below " + DICTIONARY_SIZE);
+        this.threads = Math.max(1, threads);
+        this.blockSize = blockSize;
+        this.level = level;
+        executor = Executors.newFixedThreadPool(this.threads);
+    }
+
+    /**
+     * <p>Write a gzip stream of the input, compatible with {@link java.util.zip.GZIPInputStream}</p>
+     *
+     * @param in  the input, read to the end and not closed, not null
+     * @param out receives the gzip stream, not closed, not null
+     * @return number of compressed bytes written
+     * @throws IOException when reading or writing fails
+     */
+    @WorkerThread
+    public long gzip(@NonNull InputStream in, @NonNull OutputStream out) throws IOException {
+        out.write(GZIP_HEADER);
+        Deflated deflated = deflate(in, out);
+        byte[] trailer = new byte[8];
+        putInt(trailer, 0, (int) deflated.crc);
+        putInt(trailer, 4, (int) deflated.size);
+        out.write(trailer);
+        return GZIP_HEADER.length + deflated.compressedSize + trailer.length;
+    }
+
+    /**
+     * <p>Gzip a file</p>
+     *
+     * @param source the file, not null
+     * @param target the gzip file, replaced if it exists, not null
+     * @throws IOException when reading or writing fails
+     */
+    @WorkerThread
+    public void gzip(@NonNull File source, @NonNull File target) throws IOException {
+        InputStream in = new FileInputStream(source);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(target), WRITE_BUFFER_SIZE);
+            try {
+                gzip(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * <p>Zip the files of a directory and its subdirectories. Entries are named by their
+     * path below the directory, empty directories and symbolic links are left out.</p>
+     *
+     * @param directory the directory, not null
+     * @param out       receives the zip archive, not closed, not null
+     * @return number of entries
+     * @throws IOException when reading or writing fails, or the archive needs zip64
+     */
+    @WorkerThread
+    public int zip(@NonNull File directory, @NonNull OutputStream out) throws IOException {
+        return zip(directory, out, null);
+    }
+
+    /**
+     * <p>Zip a directory to a file, the file may be inside the directory</p>
+     *
+     * @param directory the directory, not null
+     * @param target    the zip file, replaced if it exists, not null
+     * @return number of entries
+     * @throws IOException when reading or writing fails, or the archive needs zip64
+     */
+    @WorkerThread
+    public int zip(@NonNull File directory, @NonNull File target) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(target), WRITE_BUFFER_SIZE);
+        try {
+            return zip(directory, out, target.getCanonicalFile());
+        } finally {
+            out.close();
+        }
+    }
+
+    private int zip(File directory, OutputStream out, @Nullable File excluded) throws IOException {
+        List<File> files = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        list(directory, "", excluded, files, names);
+        if (files.size() > ZIP_MAX_ENTRIES) throw new IOException("Too many entries without zip64: " + files.size());
+
+        CountingOutputStream counting = new CountingOutputStream(out);
+        ByteArrayBuilder central = new ByteArrayBuilder();
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            byte[] name = names.get(i).getBytes(UTF_8);
+            int time = dosTime(file.lastModified());
+            long offset = counting.count;
+            if (offset > ZIP_MAX) throw new IOException("Archive too large without zip64");
+
+            ByteArrayBuilder local = new ByteArrayBuilder();
+            local.putInt(ZIP_LOCAL_HEADER).putShort(ZIP_VERSION).putShort(ZIP_FLAGS).putShort(Deflater.DEFLATED)
+                    .putInt(time).putInt(0).putInt(0).putInt(0).putShort(name.length).putShort(0).put(name);
+            counting.write(local.bytes, 0, local.length);
+
+            Deflated deflated;
+            InputStream in = new FileInputStream(file);
+            try {
+                deflated = deflate(in, counting);
+            } finally {
+                FileUtils.closeQuietly(in);
+            }
+            if (deflated.size > ZIP_MAX || deflated.compressedSize > ZIP_MAX) {
+                throw new IOException("Entry too large without zip64: " + file);
+            }
+
+            ByteArrayBuilder descriptor = new ByteArrayBuilder();
+            descriptor.putInt(ZIP_DATA_DESCRIPTOR).putInt((int) deflated.crc)
+                    .putInt((int) deflated.compressedSize).putInt((int) deflated.size);
+            counting.write(descriptor.bytes, 0, descriptor.length);
+
+            central.putInt(ZIP_CENTRAL_HEADER).putShort(ZIP_VERSION).putShort(ZIP_VERSION).putShort(ZIP_FLAGS)
+                    .putShort(Deflater.DEFLATED).putInt(time).putInt((int) deflated.crc)
+                    .putInt((int) deflated.compressedSize).putInt((int) deflated.size)
+                    .putShort(name.length).putShort(0).putShort(0).putShort(0).putShort(0).putInt(0)
+                    .putInt((int) offset).put(name);
+        }
+
+        long centralOffset = counting.count;
+        if (centralOffset > ZIP_MAX) throw new IOException("Archive too large without zip64");
+        counting.write(central.bytes, 0, central.length);
+        ByteArrayBuilder end = new ByteArrayBuilder();
+        end.putInt(ZIP_END).putShort(0).putShort(0).putShort(files.size()).putShort(files.size())
+                .putInt(central.length).putInt((int) centralOffset).putShort(0);
+        counting.write(end.bytes, 0, end.length);
+        counting.flush();
+        return files.size();
+    }
+
+    /**
+     * <p>Stop the threads and free the native memory of the deflaters</p>
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+        outputBuffers.clear();
+    }
+
+    /**
+     * Write the input as one raw deflate stream, blocks are deflated on the executor and
+     * written in order
+     */
+    private Deflated deflate(InputStream in, OutputStream out) throws IOException {
+        Deflated result = new Deflated();
+        CRC32 crc = new CRC32();
+        ArrayDeque<byte[]> inputBuffers = new ArrayDeque<>();
+        ArrayDeque<Future<Block>> inFlight = new ArrayDeque<>();
+        int maxInFlight = threads * BLOCKS_PER_THREAD;
+
+        byte[] current = new byte[blockSize];
+        int currentLength = readFully(in, current);
+        byte[] dictionary = null;
+        try {
+            while (true) {
+                byte[] next = null;
+                int nextLength = 0;
+                boolean last = currentLength < blockSize;
+                if (!last) {
+                    next = inputBuffers.isEmpty() ? new byte[blockSize] : inputBuffers.poll();
+                    nextLength = readFully(in, next);
+                    last = nextLength == 0;
+                }
+                crc.update(current, 0, currentLength);
+                result.size += currentLength;
+                inFlight.add(executor.submit(new BlockTask(current, currentLength, dictionary, last)));
+
+                while (inFlight.size() >= maxInFlight || last && !inFlight.isEmpty()) {
+                    Block block = await(inFlight.poll());
+                    out.write(block.output, 0, block.outputLength);
+                    result.compressedSize += block.outputLength;
+                    outputBuffers.offer(block.output);
+                    // the block after it has been written, so nothing refers to it any more
+                    if (block.dictionary != null) inputBuffers.offer(block.dictionary);
+                }
+                if (last) break;
+                dictionary = current;
+                current = next;
+                currentLength = nextLength;
+            }
+        } finally {
+            for (Future<Block> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+        result.crc = crc.getValue();
+        return result;
+    }
+
+    private static Block await(Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Deflate one block with a pooled deflater, ending on a sync flush or, for the last
+     * block, the end of the stream
+     */
+    private final class BlockTask implements Callable<Block> {
+        private final byte[] input;
+        private final int length;
+        private final byte[] dictionary;
+        private final boolean last;
+
+        BlockTask(byte[] input, int length, byte[] dictionary, boolean last) {
+            this.input = input;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.last = last;
+        }
+
+        @Override
+        public Block call() {
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) deflater = new Deflater(level, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary, blockSize - DICTIONARY_SIZE, DICTIONARY_SIZE);
+                }
+                deflater.setInput(input, 0, length);
+                if (last) deflater.finish();
+
+                byte[] output = outputBuffers.poll();
+                if (output == null) output = new byte[blockSize + blockSize / 16 + 64];
+                int position = 0;
+                int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+                while (true) {
+                    position += deflater.deflate(output, position, output.length - position, flush);
+                    // a full buffer may hold back output, finishing needs the end marker
+                    boolean done = last ? deflater.finished() : position < output.length;
+                    if (done) break;
+                    if (position == output.length) {
+                        byte[] grown = new byte[output.length * 2];
+                        System.arraycopy(output, 0, grown, 0, position);
+                        output = grown;
+                    }
+                }
+
+                Block block = new Block(input, dictionary);
+                block.output = output;
+                block.outputLength = position;
+                return block;
+            } finally {
+                deflater.reset();
+                deflaters.offer(deflater);
+            }
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int count;
+        while (length < buffer.length && (count = in.read(buffer, length, buffer.length - length)) > 0) {
+            length += count;
+        }
+        return length;
+    }
+
+    /**
+     * @param excluded canonical file left out, the archive being written, may be null
+     */
+    private static void list(File directory, String prefix, @Nullable File excluded,
+                             List<File> files, List<String> names) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) return;
+        File canonical = directory.getCanonicalFile();
+        for (File child : children) {
+            // a link may lead out of the directory or back up into it
+            if (FileUtils.isSymbolicLink(canonical, child)
+                    || new File(canonical, child.getName()).equals(excluded)) {
+                continue;
+            }
+            String name = prefix + child.getName();
+            if (child.isDirectory()) {
+                list(child, name + "/", excluded, files, names);
+            } else {
+                files.add(child);
+                names.add(name);
+            }
+        }
+    }
+
+    /**
+     * @return MS-DOS time and date of a time in the local time zone
+     */
+    private static int dosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) return (1 << 21) | (1 << 16);
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * Little endian record builder for zip headers
+     */
+    private static final class ByteArrayBuilder {
+        byte[] bytes = new byte[64];
+        int length;
+
+        ByteArrayBuilder putShort(int value) {
+            ensure(2);
+            bytes[length++] = (byte) value;
+            bytes[length++] = (byte) (value >> 8);
+            return this;
+        }
+
+        ByteArrayBuilder putInt(int value) {
+            ensure(4);
+            ParallelCompressor.putInt(bytes, length, value);
+            length += 4;
+            return this;
+        }
+
+        ByteArrayBuilder put(byte[] value) {
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+            return this;
+        }
+
+        private void ensure(int count) {
+            if (length + count <= bytes.length) return;
+            byte[] grown = new byte[Math.max(bytes.length * 2, length + count)];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
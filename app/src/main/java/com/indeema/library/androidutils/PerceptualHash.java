@@ -0,0 +1,213 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 64 bit perceptual hashes of images and Hamming distance search over them.
+ * <p>
+ * Hashes are computed from a tiny grayscale version of the image, so visually identical
+ * images hash to the same or nearly the same value whatever their size or encoding.
+ * No Android classes are used, the pixels come from {@link ImageUtils#dHash} or
+ * {@link ImageUtils#pHash}.
+ */
+
+public class PerceptualHash {
+
+    /**
+     * Side of the grayscale image a dHash is computed from, one column more than the hash
+     */
+    public static final int DHASH_WIDTH = 9;
+    public static final int DHASH_HEIGHT = 8;
+
+    /**
+     * Side of the grayscale image a pHash is computed from
+     */
+    public static final int PHASH_SIZE = 32;
+    private static final int PHASH_LOW_FREQUENCIES = 8;
+
+    /**
+     * Distance up to which two images are usually the same picture
+     */
+    public static final int DEFAULT_DUPLICATE_DISTANCE = 10;
+
+    private static final double[][] DCT_COEFFICIENTS = createDctCoefficients();
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * <p>Difference hash, one bit per pair of horizontally adjacent pixels</p>
+     *
+     * @param gray luminance of a {@link #DHASH_WIDTH}x{@link #DHASH_HEIGHT} image in rows
+     * @return 64 bit hash
+     */
+    public static long dHash(@NonNull int[] gray) {
+        long hash = 0;
+        for (int y = 0; y < DHASH_HEIGHT; y++) {
+            int row = y * DHASH_WIDTH;
+            for (int x = 0; x < DHASH_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (gray[row + x] > gray[row + x + 1]) hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * <p>DCT hash, one bit per low frequency coefficient above their median. More robust
+     * than {@link #dHash} against gamma and small edits, slower to compute.</p>
+     *
+     * @param gray luminance of a {@link #PHASH_SIZE}x{@link #PHASH_SIZE} image in rows
+     * @return hash of the 63 coefficients besides the DC term, the highest bit is always 0
+     */
+    public static long pHash(@NonNull int[] gray) {
+        final int n = PHASH_SIZE;
+        final int k = PHASH_LOW_FREQUENCIES;
+
+        // rows first, only the low frequencies are kept
+        double[] rows = new double[n * k];
+        for (int y = 0; y < n; y++) {
+            for (int u = 0; u < k; u++) {
+                double sum = 0;
+                double[] coefficients = DCT_COEFFICIENTS[u];
+                for (int x = 0; x < n; x++) {
+                    sum += coefficients[x] * gray[y * n + x];
+                }
+                rows[y * k + u] = sum;
+            }
+        }
+
+        double[] dct = new double[k * k];
+        for (int v = 0; v < k; v++) {
+            double[] coefficients = DCT_COEFFICIENTS[v];
+            for (int u = 0; u < k; u++) {
+                double sum = 0;
+                for (int y = 0; y < n; y++) {
+                    sum += coefficients[y] * rows[y * k + u];
+                }
+                dct[v * k + u] = sum;
+            }
+        }
+
+        // the DC term only holds the average brightness
+        double[] sorted = new double[k * k - 1];
+        System.arraycopy(dct, 1, sorted, 0, sorted.length);
+        Arrays.sort(sorted);
+        double median = (sorted[sorted.length / 2] + sorted[(sorted.length - 1) / 2]) / 2;
+
+        // the DC term is left out of the bits too, it is above the median for nearly every image
+        long hash = 0;
+        for (int i = 1; i < dct.length; i++) {
+            hash <<= 1;
+            if (dct[i] > median) hash |= 1;
+        }
+        return hash;
+    }
+
+    /**
+     * <p>Convert ARGB pixels to luminance</p>
+     *
+     * @param pixels ARGB pixels, not altered, not null
+     * @param gray   output luminance 0-255, at least as long as pixels
+     */
+    public static void toGray(@NonNull int[] pixels, @NonNull int[] gray) {
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            // integer Rec. 601 luma
+            gray[i] = (((p >> 16) & 0xFF) * 299 + ((p >> 8) & 0xFF) * 587 + (p & 0xFF) * 114) / 1000;
+        }
+    }
+
+    /**
+     * @return number of differing bits
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * <p>Find hashes within a distance of the query</p>
+     *
+     * @param hashes      hashes to search, not altered, not null
+     * @param query       hash to look for
+     * @param maxDistance maximum number of differing bits
+     * @param out         receives the indices of matching hashes, at least as long as hashes
+     * @return number of indices written to out
+     */
+    public static int findWithin(@NonNull long[] hashes, long query, int maxDistance, @NonNull int[] out) {
+        int count = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (Long.bitCount(hashes[i] ^ query) <= maxDistance) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * <p>Find all pairs of hashes within a distance of each other, the search is split
+     * across the executor</p>
+     *
+     * @param hashes      hashes to search, not altered, not null
+     * @param maxDistance maximum number of differing bits
+     * @param executor    executor running the search, not null
+     * @return pairs of indices, the first index is always the smaller one
+     */
+    public static List<int[]> findDuplicates(@NonNull final long[] hashes,
+                                             final int maxDistance,
+                                             @NonNull ExecutorService executor)
+            throws InterruptedException {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        // rows near the start compare with more hashes, interleave them across tasks
+        List<Future<List<int[]>>> futures = new ArrayList<>(parallelism);
+        for (int t = 0; t < parallelism; t++) {
+            final int first = t;
+            final int step = parallelism;
+            futures.add(executor.submit(new Callable<List<int[]>>() {
+                @Override
+                public List<int[]> call() {
+                    List<int[]> pairs = new ArrayList<>();
+                    for (int i = first; i < hashes.length; i += step) {
+                        long hash = hashes[i];
+                        for (int j = i + 1; j < hashes.length; j++) {
+                            if (Long.bitCount(hash ^ hashes[j]) <= maxDistance) {
+                                pairs.add(new int[]{i, j});
+                            }
+                        }
+                    }
+                    return pairs;
+                }
+            }));
+        }
+
+        List<int[]> pairs = new ArrayList<>();
+        for (Future<List<int[]>> future : futures) {
+            try {
+                pairs.addAll(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return pairs;
+    }
+
+    private static double[][] createDctCoefficients() {
+        final int n = PHASH_SIZE;
+        double[][] coefficients = new double[PHASH_LOW_FREQUENCIES][n];
+        for (int u = 0; u < PHASH_LOW_FREQUENCIES; u++) {
+            double scale = u == 0 ? Math.sqrt(1.0 / n) : Math.sqrt(2.0 / n);
+            for (int x = 0; x < n; x++) {
+                coefficients[u][x] = scale * Math.cos((2 * x + 1) * u * Math.PI / (2.0 * n));
+            }
+        }
+        return coefficients;
+    }
+}
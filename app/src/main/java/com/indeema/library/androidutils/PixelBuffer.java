@@ -0,0 +1,192 @@
+package com.indeema.library.androidutils;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.FloatRange;
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * ARGB_8888 pixels kept off the Java heap in a direct buffer.
+ * <p>
+ * Pixels are moved in and out of bitmaps with a single native copy and the kernels
+ * work on the buffer in place, so processing large images does not allocate pixel
+ * arrays on the Java heap. Pixels use the bitmap memory layout, premultiplied
+ * R, G, B, A bytes, which read as {@code 0xAABBGGRR} ints in native order.
+ */
+
+public class PixelBuffer {
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer buffer;
+    private final IntBuffer pixels;
+
+    private PixelBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.buffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        this.pixels = buffer.asIntBuffer();
+    }
+
+    /**
+     * <p>Allocate a buffer of transparent pixels</p>
+     *
+     * @param width  the width of image
+     * @param height the height of image
+     * @return new buffer
+     */
+    public static PixelBuffer allocate(int width, int height) {
+        return new PixelBuffer(width, height);
+    }
+
+    /**
+     * <p>Copy pixels of a bitmap into a new buffer</p>
+     *
+     * @param bitmap ARGB_8888 bitmap, not altered, not null.
+     * @return new buffer
+     */
+    public static PixelBuffer from(@NonNull Bitmap bitmap) {
+        PixelBuffer buffer = new PixelBuffer(bitmap.getWidth(), bitmap.getHeight());
+        buffer.copyFrom(bitmap);
+        return buffer;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the direct buffer, shared with this instance
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * <p>Replace pixels with the pixels of a bitmap of the same size</p>
+     *
+     * @param bitmap ARGB_8888 bitmap, not altered, not null.
+     */
+    public void copyFrom(@NonNull Bitmap bitmap) {
+        checkBitmap(bitmap);
+        buffer.rewind();
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.rewind();
+    }
+
+    /**
+     * <p>Write pixels to a bitmap of the same size</p>
+     *
+     * @param bitmap mutable ARGB_8888 bitmap, altered, not null.
+     */
+    public void copyTo(@NonNull Bitmap bitmap) {
+        checkBitmap(bitmap);
+        buffer.rewind();
+        bitmap.copyPixelsFromBuffer(buffer);
+        buffer.rewind();
+    }
+
+    /**
+     * <p>Blend pixels of another buffer of the same size into this one, per channel
+     * like {@link ColorUtils#blendColors}</p>
+     *
+     * @param other buffer to blend with, not altered, not null
+     * @param ratio 0.0 keeps these pixels, 1.0 gives the other pixels
+     */
+    public void blend(@NonNull PixelBuffer other, @FloatRange(from = 0f, to = 1f) float ratio) {
+        checkSize(other);
+        IntBuffer source = other.pixels;
+        int weight = Math.round(ratio * 256);
+        int inverse = 256 - weight;
+        for (int i = 0, count = width * height; i < count; i++) {
+            int a = pixels.get(i);
+            int b = source.get(i);
+            // two channels per multiply, 8 bits of headroom between them
+            int evens = ((a & 0x00FF00FF) * inverse + (b & 0x00FF00FF) * weight) >>> 8 & 0x00FF00FF;
+            int odds = ((a >>> 8 & 0x00FF00FF) * inverse + (b >>> 8 & 0x00FF00FF) * weight) & 0xFF00FF00;
+            pixels.put(i, evens | odds);
+        }
+    }
+
+    /**
+     * @return mean luminance of all pixels, 0-255
+     */
+    public int averageLuminance() {
+        long sum = 0;
+        for (int i = 0, count = width * height; i < count; i++) {
+            sum += luminance(pixels.get(i));
+        }
+        return (int) (sum / Math.max(1, width * height));
+    }
+
+    /**
+     * <p>Write luminance of every pixel as one byte</p>
+     *
+     * @param out buffer with at least width * height bytes remaining, altered, not null
+     */
+    public void fillLuminance(@NonNull ByteBuffer out) {
+        int start = out.position();
+        for (int i = 0, count = width * height; i < count; i++) {
+            out.put(start + i, (byte) luminance(pixels.get(i)));
+        }
+        out.position(start + width * height);
+    }
+
+    /**
+     * <p>Copy a region of this buffer to the top left corner of another buffer,
+     * one native copy per row</p>
+     *
+     * @param dest buffer the region is copied to, altered, not null
+     * @param x    left of the region
+     * @param y    top of the region
+     * @param w    width of the region, not wider than dest
+     * @param h    height of the region, not higher than dest
+     */
+    public void copyRegion(@NonNull PixelBuffer dest, int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height
+                || w > dest.width || h > dest.height) {
+            throw new IllegalArgumentException("Region " + w + "x" + h + " at " + x + "," + y
+                    + " does not fit " + width + "x" + height + " to " + dest.width + "x" + dest.height);
+        }
+        ByteBuffer source = buffer.duplicate();
+        ByteBuffer target = dest.buffer.duplicate();
+        int rowBytes = w * 4;
+        for (int row = 0; row < h; row++) {
+            int from = ((y + row) * width + x) * 4;
+            source.limit(from + rowBytes).position(from);
+            target.position(row * dest.width * 4);
+            target.put(source);
+        }
+    }
+
+    /**
+     * Rec. 601 luma of a pixel in bitmap memory layout
+     */
+    private static int luminance(int pixel) {
+        int r = pixel & 0xFF;
+        int g = pixel >> 8 & 0xFF;
+        int b = pixel >> 16 & 0xFF;
+        return (r * 77 + g * 150 + b * 29) >> 8;
+    }
+
+    private void checkBitmap(Bitmap bitmap) {
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888
+                || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            throw new IllegalArgumentException("Bitmap must be ARGB_8888 " + width + "x" + height);
+        }
+    }
+
+    private void checkSize(PixelBuffer other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Buffer must be " + width + "x" + height);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Stack blur of ARGB pixels, an approximation of gaussian blur by Mario Klingemann.
+ * <p>
+ * The horizontal pass is split into row stripes and the vertical pass into column
+ * stripes which run on a small pool of threads. Scratch buffers are kept between calls,
+ * so one instance should be reused for repeated blurs of the same size. Such blurs are
+ * not thread safe; blurs with scratch of the caller are, so threads can share the pool
+ * of one instance. No Android classes are used, so it runs on a plain JVM.
+ */
+
+public class StackBlur {
+
+    public static final int MAX_RADIUS = 254;
+
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    private int[] scratch = new int[0];
+    private int[][] stacks = new int[0][];
+
+    /**
+     * Blur using all available processors
+     */
+    public StackBlur() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism number of stripes each pass is split into
+     */
+    public StackBlur(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.executor = this.parallelism == 1 ? null
+                : Executors.newFixedThreadPool(this.parallelism - 1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, "StackBlur");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * <p>Blur pixels in place</p>
+     *
+     * @param pixels ARGB pixels in rows, not null
+     * @param width  the width of image
+     * @param height the height of image
+     * @param radius blur radius in pixels, 1-{@link #MAX_RADIUS}
+     */
+    public void blur(@NonNull int[] pixels, int width, int height, int radius) {
+        if (radius < 1 || width == 0 || height == 0) return;
+        int r = Math.min(radius, MAX_RADIUS);
+        if (scratch.length < width * height) scratch = new int[width * height];
+        if (stacks.length < parallelism || stacks[0].length < 2 * r + 1) {
+            stacks = new int[parallelism][2 * r + 1];
+        }
+        blur(pixels, scratch, width, height, r, stacks);
+    }
+
+    /**
+     * <p>Blur pixels in place using scratch of the caller. Nothing is kept in the
+     * instance, so threads may call this at the same time.</p>
+     *
+     * @param pixels  ARGB pixels in rows, not null
+     * @param scratch at least width * height pixels, overwritten, not null
+     * @param width   the width of image
+     * @param height  the height of image
+     * @param radius  blur radius in pixels, 1-{@link #MAX_RADIUS}
+     */
+    public void blur(@NonNull int[] pixels, @NonNull int[] scratch, int width, int height, int radius) {
+        if (radius < 1 || width == 0 || height == 0) return;
+        int r = Math.min(radius, MAX_RADIUS);
+        blur(pixels, scratch, width, height, r, new int[parallelism][2 * r + 1]);
+    }
+
+    private void blur(final int[] pixels, final int[] temp, final int width, final int height, final int r,
+                      final int[][] stacks) {
+        if (pixels.length < width * height || temp.length < width * height) {
+            throw new IllegalArgumentException("pixels or scratch is smaller than " + width + "x" + height);
+        }
+
+        runStriped(height, stacks, new Stripe() {
+            @Override
+            public void run(int from, int to, int[] stack) {
+                for (int y = from; y < to; y++) {
+                    blurLine(pixels, temp, y * width, 1, width, r, stack);
+                }
+            }
+        });
+        runStriped(width, stacks, new Stripe() {
+            @Override
+            public void run(int from, int to, int[] stack) {
+                for (int x = from; x < to; x++) {
+                    blurLine(temp, pixels, x, width, height, r, stack);
+                }
+            }
+        });
+    }
+
+    /**
+     * <p>Stop the worker threads</p>
+     */
+    public void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    private interface Stripe {
+        void run(int from, int to, int[] stack);
+    }
+
+    private void runStriped(int count, int[][] stacks, final Stripe stripe) {
+        int stripes = Math.min(parallelism, count);
+        if (stripes == 1) {
+            stripe.run(0, count, stacks[0]);
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(stripes - 1);
+        for (int i = 1; i < stripes; i++) {
+            final int from = count * i / stripes;
+            final int to = count * (i + 1) / stripes;
+            final int[] stack = stacks[i];
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stripe.run(from, to, stack);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        stripe.run(0, count / stripes, stacks[0]);
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Blur one row or column of {@code length} pixels starting at {@code offset},
+     * edge pixels are repeated outside of the line
+     */
+    private static void blurLine(int[] src, int[] dst, int offset, int step, int length, int r, int[] stack) {
+        final int div = 2 * r + 1;
+        final int divSum = (r + 1) * (r + 1);
+        final int last = length - 1;
+
+        int sumA = 0, sumR = 0, sumG = 0, sumB = 0;
+        int inA = 0, inR = 0, inG = 0, inB = 0;
+        int outA = 0, outR = 0, outG = 0, outB = 0;
+
+        for (int i = -r; i <= r; i++) {
+            int p = src[offset + Math.min(last, Math.max(i, 0)) * step];
+            stack[i + r] = p;
+            int weight = r + 1 - Math.abs(i);
+            int a = p >>> 24, red = (p >> 16) & 0xFF, g = (p >> 8) & 0xFF, b = p & 0xFF;
+            sumA += a * weight;
+            sumR += red * weight;
+            sumG += g * weight;
+            sumB += b * weight;
+            if (i > 0) {
+                inA += a;
+                inR += red;
+                inG += g;
+                inB += b;
+            } else {
+                outA += a;
+                outR += red;
+                outG += g;
+                outB += b;
+            }
+        }
+
+        int stackPointer = r;
+        int index = offset;
+        for (int i = 0; i < length; i++) {
+            dst[index] = (sumA / divSum) << 24 | (sumR / divSum) << 16 | (sumG / divSum) << 8 | sumB / divSum;
+            index += step;
+
+            sumA -= outA;
+            sumR -= outR;
+            sumG -= outG;
+            sumB -= outB;
+
+            int stackStart = stackPointer - r + div;
+            if (stackStart >= div) stackStart -= div;
+            int p = stack[stackStart];
+            outA -= p >>> 24;
+            outR -= (p >> 16) & 0xFF;
+            outG -= (p >> 8) & 0xFF;
+            outB -= p & 0xFF;
+
+            p = src[offset + Math.min(i + r + 1, last) * step];
+            stack[stackStart] = p;
+            inA += p >>> 24;
+            inR += (p >> 16) & 0xFF;
+            inG += (p >> 8) & 0xFF;
+            inB += p & 0xFF;
+
+            sumA += inA;
+            sumR += inR;
+            sumG += inG;
+            sumB += inB;
+
+            stackPointer++;
+            if (stackPointer == div) stackPointer = 0;
+            p = stack[stackPointer];
+            int a = p >>> 24, red = (p >> 16) & 0xFF, g = (p >> 8) & 0xFF, b = p & 0xFF;
+            outA += a;
+            outR += red;
+            outG += g;
+            outB += b;
+            inA -= a;
+            inR -= red;
+            inG -= g;
+            inB -= b;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.indeema.library.androidutils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the files of managed directories within a byte and file count budget.
+ * <p>
+ * An index holds the size and last access time of every file. Once a budget is
+ * exceeded the least recently used files are deleted, a few per step, so cleaning never
+ * holds the disk for long. The index is built by walking the directories on a pool of
+ * threads, symbolic links are not followed. Access times are kept in the file
+ * modification time, which survives restarts on every file system, unlike the access time.
+ */
+
+public class StorageJanitor {
+
+    public static final int DEFAULT_DELETES_PER_STEP = 16;
+    public static final long DEFAULT_STEP_INTERVAL_MS = 500;
+
+    private static final class Entry implements Comparable<Entry> {
+        final File file;
+        final long size;
+        final long lastAccess;
+
+        Entry(File file, long size, long lastAccess) {
+            this.file = file;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+
+        @Override
+        public int compareTo(@NonNull Entry other) {
+            if (lastAccess != other.lastAccess) return lastAccess < other.lastAccess ? -1 : 1;
+            return file.compareTo(other.file);
+        }
+    }
+
+    private final long maxBytes;
+    private final int maxFiles;
+    private final List<File> directories = new ArrayList<>();
+    private final Map<File, Entry> index = new HashMap<>();
+    private final TreeSet<Entry> accessOrder = new TreeSet<>();
+
+    private long size;
+    private int evictionCount;
+    private boolean rebuilding;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> task;
+
+    /**
+     * @param maxBytes maximum byte count of all managed files
+     * @param maxFiles maximum number of managed files
+     */
+    public StorageJanitor(long maxBytes, int maxFiles) {
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * <p>Manage the files of a directory and its subdirectories. Files already there are
+     * indexed by the next {@link #rebuild}.</p>
+     *
+     * @param directory the directory, not null
+     */
+    public synchronized void manage(@NonNull File directory) {
+        File absolute = directory.getAbsoluteFile();
+        if (!directories.contains(absolute)) directories.add(absolute);
+    }
+
+    /**
+     * <p>Index a file written to a managed directory</p>
+     *
+     * @param file the new file, not null
+     */
+    public synchronized void add(@NonNull File file) {
+        put(file.getAbsoluteFile(), file.length(), System.currentTimeMillis());
+    }
+
+    /**
+     * <p>Mark a file as used now, so it is evicted last. Its size is read again, so
+     * touching a file after writing to it keeps the byte count right.</p>
+     *
+     * @param file a managed file, not null
+     */
+    public synchronized void touch(@NonNull File file) {
+        File absolute = file.getAbsoluteFile();
+        if (!index.containsKey(absolute)) return;
+        if (!absolute.exists()) {
+            remove(absolute);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        //noinspection ResultOfMethodCallIgnored
+        absolute.setLastModified(now);
+        put(absolute, absolute.length(), now);
+    }
+
+    /**
+     * <p>Drop a file from the index, e.g. after the app deleted it</p>
+     */
+    public synchronized void remove(@NonNull File file) {
+        Entry entry = index.remove(file.getAbsoluteFile());
+        if (entry != null) {
+            accessOrder.remove(entry);
+            size -= entry.size;
+        }
+    }
+
+    /**
+     * <p>Replace the index with the files found in the managed directories</p>
+     *
+     * @param parallelism number of threads walking the directories
+     */
+    @WorkerThread
+    public void rebuild(int parallelism) {
+        List<File> roots;
+        long startedAt = System.currentTimeMillis();
+        synchronized (this) {
+            roots = new ArrayList<>(directories);
+            rebuilding = true;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        List<Entry> found = new ArrayList<>();
+        try {
+            for (File root : roots) {
+                found.addAll(pool.invoke(new WalkTask(root)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        synchronized (this) {
+            Map<File, Entry> previous = new HashMap<>(index);
+            index.clear();
+            accessOrder.clear();
+            size = 0;
+            for (Entry entry : found) {
+                put(entry.file, entry.size, entry.lastAccess);
+            }
+            // files added or touched while walking keep their newer state
+            for (Entry entry : previous.values()) {
+                if (entry.lastAccess >= startedAt) put(entry.file, entry.size, entry.lastAccess);
+            }
+            rebuilding = false;
+        }
+    }
+
+    /**
+     * <p>Delete least recently used files while a budget is exceeded</p>
+     *
+     * @param maxDeletes maximum number of files deleted by this call
+     * @return true when the budgets are met, false while the index is being rebuilt
+     */
+    @WorkerThread
+    public boolean trim(int maxDeletes) {
+        for (int i = 0; i < maxDeletes; i++) {
+            Entry eldest;
+            synchronized (this) {
+                if (rebuilding) return false;
+                if (!isOverBudget()) return true;
+                eldest = accessOrder.first();
+                // the file may have been written since it was indexed
+                long length = eldest.file.length();
+                if (length != eldest.size) {
+                    put(eldest.file, length, eldest.lastAccess);
+                    if (!isOverBudget()) return true;
+                }
+                eldest = accessOrder.pollFirst();
+                index.remove(eldest.file);
+                size -= eldest.size;
+            }
+            // deleted outside the lock so the index stays usable
+            if (eldest.file.delete() || !eldest.file.exists()) {
+                synchronized (this) {
+                    evictionCount++;
+                }
+            }
+        }
+        synchronized (this) {
+            return !isOverBudget();
+        }
+    }
+
+    /**
+     * <p>Rebuild the index on a background thread, then trim a few files every interval
+     * until {@link #stop} is called</p>
+     *
+     * @param deletesPerStep files deleted at most per step
+     * @param intervalMs     pause between steps
+     */
+    public synchronized void start(final int deletesPerStep, long intervalMs) {
+        if (scheduler != null) return;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        scheduler = executor;
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+                rebuild(Runtime.getRuntime().availableProcessors());
+            }
+        });
+        task = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                trim(deletesPerStep);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>Stop background trimming, a running step is finished</p>
+     */
+    public synchronized void stop() {
+        if (scheduler == null) return;
+        task.cancel(false);
+        scheduler.shutdown();
+        scheduler = null;
+        task = null;
+    }
+
+    /**
+     * @return byte count of all indexed files
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of indexed files
+     */
+    public synchronized int getFileCount() {
+        return index.size();
+    }
+
+    /**
+     * @return number of files deleted to meet the budgets
+     */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    private boolean isOverBudget() {
+        return !accessOrder.isEmpty() && (size > maxBytes || index.size() > maxFiles);
+    }
+
+    private void put(File file, long length, long lastAccess) {
+        Entry previous = index.get(file);
+        if (previous != null) {
+            accessOrder.remove(previous);
+            size -= previous.size;
+        }
+        Entry entry = new Entry(file, length, lastAccess);
+        index.put(file, entry);
+        accessOrder.add(entry);
+        size += length;
+    }
+
+    /**
+     * Lists the files of a directory tree, subdirectories are walked in parallel
+     */
+    private static final class WalkTask extends RecursiveTask<List<Entry>> {
+        private static final long serialVersionUID = 1L;
+
+        private final File directory;
+
+        WalkTask(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<Entry> compute() {
+            File[] children = directory.listFiles();
+            if (children == null) return Collections.emptyList();
+            File canonical;
+            try {
+                canonical = directory.getCanonicalFile();
+            } catch (IOException e) {
+                return Collections.emptyList();
+            }
+            List<Entry> entries = new ArrayList<>();
+            List<WalkTask> subtasks = new ArrayList<>();
+            for (File child : children) {
+                // a link to a parent directory would be walked forever
+                if (FileUtils.isSymbolicLink(canonical, child)) continue;
+                if (child.isDirectory()) {
+                    WalkTask subtask = new WalkTask(child);
+                    subtask.fork();
+                    subtasks.add(subtask);
+                } else {
+                    entries.add(new Entry(child.getAbsoluteFile(), child.length(), child.lastModified()));
+                }
+            }
+            for (WalkTask subtask : subtasks) {
+                entries.addAll(subtask.join());
+            }
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.indeema.library.androidutils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates thumbnails for many images on a bounded pool of threads.
+ * <p>
+ * Before an image is queued its decode is planned with {@link DecodePlan} and the
+ * planned bytes are taken from a memory budget, so the bitmaps alive at once never
+ * exceed it however many threads are used. Images are turned upright by their EXIF
+ * orientation. Every thumbnail is written to disk as soon as it is ready and its bitmap
+ * is recycled right away.
+ */
+
+public class ThumbnailGenerator {
+
+    public interface Listener {
+        /**
+         * Called on a worker thread after every source
+         *
+         * @param source    the source image
+         * @param thumbnail the written thumbnail or null when unsuccessful
+         * @param completed number of sources done so far
+         * @param total     number of sources in the batch
+         */
+        void onThumbnail(@NonNull File source, @Nullable File thumbnail, int completed, int total);
+    }
+
+    /**
+     * Result of a batch
+     */
+    public static final class Stats {
+        public final int generated;
+        public final int failed;
+        public final long elapsedMillis;
+        public final long bytesWritten;
+        public final long peakBytesInFlight;
+
+        Stats(int generated, int failed, long elapsedMillis, long bytesWritten, long peakBytesInFlight) {
+            this.generated = generated;
+            this.failed = failed;
+            this.elapsedMillis = elapsedMillis;
+            this.bytesWritten = bytesWritten;
+            this.peakBytesInFlight = peakBytesInFlight;
+        }
+
+        /**
+         * @return thumbnails per second
+         */
+        public float getThroughput() {
+            return elapsedMillis == 0 ? generated : generated * 1000f / elapsedMillis;
+        }
+    }
+
+    /**
+     * Budget is counted in kilobytes to keep permits in int range
+     */
+    private static final int BYTES_PER_PERMIT = 1024;
+
+    private final ExecutorService executor;
+    private final long memoryBudgetBytes;
+
+    /**
+     * @param threads           number of decode threads
+     * @param memoryBudgetBytes maximum bytes of bitmaps alive at once
+     */
+    public ThumbnailGenerator(int threads, long memoryBudgetBytes) {
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    /**
+     * <p>Generate thumbnails for all sources, blocks until the batch is done</p>
+     *
+     * @param sources   image files, not null
+     * @param outputDir directory thumbnails are written to, named after their source with
+     *                  its extension kept, e.g. a.png.jpg, and numbered when names repeat
+     * @param width     the maximum thumbnail width
+     * @param height    the maximum thumbnail height
+     * @param format    format of the thumbnails
+     * @param quality   hint to the compressor, 0-100
+     * @param listener  progress listener, may be null
+     * @return statistics of the batch
+     * @throws InterruptedException when the calling thread is interrupted, queued sources are dropped
+     */
+    @WorkerThread
+    public Stats generate(@NonNull List<File> sources,
+                          @NonNull final File outputDir,
+                          final int width,
+                          final int height,
+                          @NonNull final Bitmap.CompressFormat format,
+                          final int quality,
+                          @Nullable final Listener listener) throws InterruptedException {
+        final int total = sources.size();
+        final int budgetPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudgetBytes / BYTES_PER_PERMIT));
+        final Semaphore budget = new Semaphore(budgetPermits);
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong bytesWritten = new AtomicLong();
+        final AtomicLong bytesInFlight = new AtomicLong();
+        final AtomicLong peakBytesInFlight = new AtomicLong();
+        final long start = System.currentTimeMillis();
+
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            return new Stats(0, total, 0, 0, 0);
+        }
+
+        Set<String> names = new HashSet<>();
+        for (final File source : sources) {
+            ImageHeader header = readHeader(source);
+            final DecodePlan plan = plan(source, header, width, height);
+            if (plan == null) {
+                failed.incrementAndGet();
+                notifyListener(listener, source, null, completed.incrementAndGet(), total);
+                continue;
+            }
+
+            final ImageTransform orientation = new ImageTransform();
+            if (header != null) orientation.orient(header);
+            final File target = new File(outputDir, thumbnailName(source, FileUtils.getExtension(format), names));
+
+            // turning upright copies the decoded bitmap once more
+            final long bytes = orientation.isIdentity()
+                    ? plan.getPeakBytes() : Math.max(plan.getPeakBytes(), 2 * plan.getEstimatedBytes());
+            // an image bigger than the whole budget runs alone
+            final int permits = (int) Math.min(budgetPermits, Math.max(1, bytes / BYTES_PER_PERMIT));
+            budget.acquire(permits);
+            peakBytesInFlight.set(Math.max(peakBytesInFlight.get(), bytesInFlight.addAndGet(bytes)));
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    File thumbnail = null;
+                    try {
+                        thumbnail = generate(source, plan, orientation, target, format, quality);
+                    } catch (RuntimeException | OutOfMemoryError e) {
+                        // counted as failed below
+                    }
+                    bytesInFlight.addAndGet(-bytes);
+                    try {
+                        if (thumbnail != null) {
+                            bytesWritten.addAndGet(thumbnail.length());
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                        notifyListener(listener, source, thumbnail, completed.incrementAndGet(), total);
+                    } finally {
+                        budget.release(permits);
+                    }
+                }
+            });
+        }
+
+        // every task gives its permits back when done
+        budget.acquire(budgetPermits);
+        budget.release(budgetPermits);
+
+        int failedCount = failed.get();
+        return new Stats(total - failedCount, failedCount, System.currentTimeMillis() - start,
+                bytesWritten.get(), peakBytesInFlight.get());
+    }
+
+    /**
+     * <p>Stop the threads once running thumbnails are done</p>
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Nullable
+    private static ImageHeader readHeader(File source) {
+        try {
+            return ImageHeader.parse(source);
+        } catch (IOException e) {
+            // left to the bounds decode
+            return null;
+        }
+    }
+
+    @Nullable
+    private DecodePlan plan(File source, @Nullable ImageHeader header, int width, int height) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        if (header != null) {
+            bounds.outWidth = header.getWidth();
+            bounds.outHeight = header.getHeight();
+            bounds.outMimeType = header.getMimeType();
+        } else {
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(source.getAbsolutePath(), bounds);
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null;
+        }
+        // the required size is upright, the decoded image is not yet
+        boolean transposed = header != null && header.getRotationDegrees() % 180 != 0;
+        return transposed
+                ? DecodePlan.create(bounds, height, width, memoryBudgetBytes, false)
+                : DecodePlan.create(bounds, width, height, memoryBudgetBytes, false);
+    }
+
+    @Nullable
+    private static File generate(File source, DecodePlan plan, ImageTransform orientation, File target,
+                                 Bitmap.CompressFormat format, int quality) {
+        Bitmap bitmap = ImageUtils.decodeBitmap(source, plan);
+        if (bitmap == null) return null;
+        Bitmap upright = bitmap;
+        try {
+            upright = orientation.apply(bitmap);
+            return FileUtils.saveBitmapToFile(target, upright, format, quality);
+        } finally {
+            if (upright != bitmap) upright.recycle();
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Name of a thumbnail, the source extension is kept so a.jpg and a.png do not collide,
+     * sources of the same name from different directories are numbered
+     */
+    private static String thumbnailName(File source, String extension, Set<String> used) {
+        String name = source.getName() + extension;
+        // lower case, shared storage does not tell case apart
+        for (int i = 1; !used.add(name.toLowerCase(Locale.US)); i++) {
+            name = source.getName() + "-" + i + extension;
+        }
+        return name;
+    }
+
+    private static void notifyListener(@Nullable Listener listener, File source, @Nullable File thumbnail,
+                                       int completed, int total) {
+        if (listener != null) listener.onThumbnail(source, thumbnail, completed, total);
+    }
+}
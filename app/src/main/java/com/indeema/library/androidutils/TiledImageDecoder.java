@@ -0,0 +1,270 @@
+package com.indeema.library.androidutils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Decodes images too large to fit in memory as a grid of tiles.
+ * <p>
+ * Only tiles intersecting the visible region are decoded, at the sample level that
+ * matches the current zoom. Decoded tiles are kept in an LRU bounded by bitmap byte
+ * count, so memory use does not depend on the size of the source image.
+ */
+
+public class TiledImageDecoder {
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+    public static final int DEFAULT_CACHE_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Tiles around the visible grid that are decoded ahead of scrolling
+     */
+    private static final int PREFETCH_RING = 1;
+
+    public interface OnTileDecodedListener {
+        /**
+         * Called on the main thread once a requested tile is in the cache
+         */
+        void onTileDecoded(@NonNull Tile tile);
+    }
+
+    /**
+     * Decoded part of the source image
+     */
+    public static final class Tile {
+        public final int sampleSize;
+        public final int column;
+        public final int row;
+        /**
+         * Region of the tile in source image coordinates
+         */
+        public final Rect region;
+        public final Bitmap bitmap;
+
+        Tile(int sampleSize, int column, int row, Rect region, Bitmap bitmap) {
+            this.sampleSize = sampleSize;
+            this.column = column;
+            this.row = row;
+            this.region = region;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final BitmapRegionDecoder decoder;
+    private final int tileSize;
+    private final LruCache<Long, Tile> cache;
+    private final Set<Long> pending = Collections.synchronizedSet(new HashSet<Long>());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile int currentSampleSize;
+    private volatile OnTileDecodedListener listener;
+
+    /**
+     * <p>Open image file for tiled decoding with default tile and cache size</p>
+     *
+     * @param file the image, not null
+     * @return decoder of the image
+     * @throws IOException when the image format is not supported
+     */
+    public static TiledImageDecoder open(@NonNull File file) throws IOException {
+        return new TiledImageDecoder(BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false),
+                DEFAULT_TILE_SIZE,
+                DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * @param decoder    region decoder of the image, owned by this instance
+     * @param tileSize   side of a tile in decoded pixels
+     * @param cacheBytes maximum byte count of cached tiles
+     */
+    public TiledImageDecoder(@NonNull BitmapRegionDecoder decoder, int tileSize, int cacheBytes) {
+        this.decoder = decoder;
+        this.tileSize = tileSize;
+        this.cache = new LruCache<Long, Tile>(cacheBytes) {
+            @Override
+            protected int sizeOf(Long key, Tile tile) {
+                return tile.bitmap.getByteCount();
+            }
+        };
+    }
+
+    public void setOnTileDecodedListener(@Nullable OnTileDecodedListener listener) {
+        this.listener = listener;
+    }
+
+    public int getWidth() {
+        return decoder.getWidth();
+    }
+
+    public int getHeight() {
+        return decoder.getHeight();
+    }
+
+    /**
+     * <p>Calculate the sample size for a zoom level, largest power of two that
+     * does not drop below the displayed resolution</p>
+     *
+     * @param scale displayed pixels per source pixel
+     * @return sample size value that is a power of two
+     */
+    public static int calculateSampleSize(float scale) {
+        int sampleSize = 1;
+        if (scale <= 0) return sampleSize;
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * <p>Get the cached tiles covering the visible region. Missing tiles and a ring of
+     * neighbours are decoded in the background and reported to the listener.</p>
+     *
+     * @param visible region in source image coordinates, not altered, not null
+     * @param scale   displayed pixels per source pixel
+     * @return tiles available right now, may be fewer than the visible grid
+     */
+    public List<Tile> getVisibleTiles(@NonNull Rect visible, float scale) {
+        int sampleSize = calculateSampleSize(scale);
+        currentSampleSize = sampleSize;
+
+        int span = tileSize * sampleSize;
+        int columns = (getWidth() + span - 1) / span;
+        int rows = (getHeight() + span - 1) / span;
+
+        int firstColumn = Math.max(0, visible.left / span);
+        int lastColumn = Math.min(columns - 1, (visible.right - 1) / span);
+        int firstRow = Math.max(0, visible.top / span);
+        int lastRow = Math.min(rows - 1, (visible.bottom - 1) / span);
+
+        List<Tile> tiles = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Tile tile = cache.get(key(sampleSize, column, row));
+                if (tile != null) {
+                    tiles.add(tile);
+                } else {
+                    requestTile(sampleSize, column, row);
+                }
+            }
+        }
+
+        for (int row = firstRow - PREFETCH_RING; row <= lastRow + PREFETCH_RING; row++) {
+            for (int column = firstColumn - PREFETCH_RING; column <= lastColumn + PREFETCH_RING; column++) {
+                boolean inside = row >= firstRow && row <= lastRow
+                        && column >= firstColumn && column <= lastColumn;
+                if (!inside && row >= 0 && row < rows && column >= 0 && column < columns) {
+                    requestTile(sampleSize, column, row);
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * <p>Decode a tile on the caller thread, or get it from the cache</p>
+     *
+     * @param sampleSize sample size value that is a power of two
+     * @param column     column of the tile in the grid of this sample size
+     * @param row        row of the tile in the grid of this sample size
+     * @return tile or null if the region is outside of the image or could not be decoded
+     */
+    public Tile decodeTile(int sampleSize, int column, int row) {
+        long key = key(sampleSize, column, row);
+        Tile tile = cache.get(key);
+        if (tile != null) return tile;
+
+        int span = tileSize * sampleSize;
+        Rect region = new Rect(column * span, row * span, (column + 1) * span, (row + 1) * span);
+        if (!region.intersect(0, 0, getWidth(), getHeight())) return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decodeRegion(region, options);
+        } catch (IllegalStateException e) {
+            // decoder was recycled while the request was queued
+            return null;
+        }
+        if (bitmap == null) return null;
+
+        tile = new Tile(sampleSize, column, row, region, bitmap);
+        cache.put(key, tile);
+        return tile;
+    }
+
+    /**
+     * <p>Drop all decoded tiles, for example when the app is asked to trim memory</p>
+     */
+    public void evictAll() {
+        cache.evictAll();
+    }
+
+    /**
+     * <p>Stop background decoding and free the native decoder</p>
+     */
+    public void recycle() {
+        executor.shutdownNow();
+        cache.evictAll();
+        decoder.recycle();
+    }
+
+    private void requestTile(final int sampleSize, final int column, final int row) {
+        final long key = key(sampleSize, column, row);
+        if (executor.isShutdown() || cache.get(key) != null || !pending.add(key)) return;
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // the zoom level changed while the request was queued
+                        if (sampleSize != currentSampleSize) return;
+                        final Tile tile = decodeTile(sampleSize, column, row);
+                        if (tile != null) {
+                            mainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    OnTileDecodedListener l = listener;
+                                    if (l != null) l.onTileDecoded(tile);
+                                }
+                            });
+                        }
+                    } finally {
+                        pending.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // recycled while requesting
+            pending.remove(key);
+        }
+    }
+
+    private static long key(int sampleSize, int column, int row) {
+        return ((long) Integer.numberOfTrailingZeros(sampleSize) << 56)
+                | ((long) (column & 0xFFFFFFF) << 28)
+                | (row & 0xFFFFFFF);
+    }
+}
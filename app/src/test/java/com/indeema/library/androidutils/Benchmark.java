@@ -0,0 +1,58 @@
+package com.indeema.library.androidutils;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Timing helper for the benchmark tests.
+ * <p>
+ * Benchmarks are skipped by a plain test run, run them with
+ * {@code ./gradlew testDebugUnitTest -Pbenchmark}. Results are printed to the test output.
+ */
+
+final class Benchmark {
+
+    interface Body {
+        void run() throws Exception;
+    }
+
+    private Benchmark() {
+    }
+
+    static void assumeEnabled() {
+        Assume.assumeTrue("benchmarks run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    /**
+     * @return nanoseconds of the fastest of several runs, after warming up
+     */
+    static long bestOf(int runs, Body body) throws Exception {
+        for (int i = 0; i < Math.max(1, runs / 2); i++) {
+            body.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            body.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * @return bytes allocated on the Java heap by the calling thread so far, -1 where the
+     * JVM does not count them
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static void report(String name, String format, Object... args) {
+        System.out.println(name + ": " + String.format(Locale.US, format, args));
+    }
+}
@@ -0,0 +1,196 @@
+package com.indeema.library.androidutils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlobStoreTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestFiles.createTempDirectory("blobs");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void storesIdenticalContentOnce() throws Exception {
+        byte[] data = randomBytes(200 * 1024, 1);
+        File source = new File(dir, "source");
+        Files.write(source.toPath(), data);
+
+        BlobStore store = BlobStore.open(new File(dir, "store"));
+        try {
+            String hash = store.put("a", source);
+            assertEquals(sha256Hex(data), hash);
+            assertEquals(hash, store.put("b", new ByteArrayInputStream(data)));
+            assertEquals(hash, store.put("c", source));
+
+            assertEquals(3, store.getNameCount());
+            assertEquals(1, store.getBlobCount());
+            assertEquals(2, store.getDeduplicatedCount());
+            assertEquals(2L * data.length, store.getDeduplicatedBytes());
+            assertEquals(store.get("a"), store.get("b"));
+            assertEquals(store.get("a"), store.get("c"));
+            assertArrayEquals(data, Files.readAllBytes(store.get("a").toPath()));
+            assertEquals(0, new File(dir, "store/tmp").list().length);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void countsReferencesOfLinksAndRemovals() throws Exception {
+        byte[] first = randomBytes(1000, 2);
+        byte[] second = randomBytes(3000, 3);
+        BlobStore store = BlobStore.open(new File(dir, "store"));
+        try {
+            store.put("a", new ByteArrayInputStream(first));
+            File firstBlob = store.get("a");
+            assertTrue(store.link("b", "a"));
+            assertFalse(store.link("c", "missing"));
+            assertEquals(firstBlob, store.get("b"));
+
+            assertTrue(store.remove("a"));
+            assertFalse(store.remove("a"));
+            assertNull(store.get("a"));
+            assertEquals(0, store.collectGarbage());
+            assertTrue(firstBlob.isFile());
+
+            // replacing the last name of a blob leaves it to the collector
+            store.put("b", new ByteArrayInputStream(second));
+            File secondBlob = store.get("b");
+            assertEquals(2, store.getBlobCount());
+            assertEquals(first.length, store.collectGarbage());
+            assertFalse(firstBlob.exists());
+            assertEquals(1, store.getBlobCount());
+
+            assertTrue(store.remove("b"));
+            assertEquals(second.length, store.collectGarbage());
+            assertFalse(secondBlob.exists());
+            assertEquals(0, store.getBlobCount());
+            assertEquals(0, store.getNameCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void reopensWithIndexCutShort() throws Exception {
+        File directory = new File(dir, "store");
+        BlobStore store = BlobStore.open(directory);
+        store.put("kept", new ByteArrayInputStream(randomBytes(500, 4)));
+        store.link("linked", "kept");
+        store.put("torn", new ByteArrayInputStream(randomBytes(700, 5)));
+        store.close();
+
+        // a crash while the last record was written
+        RandomAccessFile index = new RandomAccessFile(new File(directory, "index"), "rw");
+        try {
+            index.setLength(index.length() - 5);
+        } finally {
+            index.close();
+        }
+
+        store = BlobStore.open(directory);
+        try {
+            assertEquals(2, store.getNameCount());
+            assertNotNull(store.get("kept"));
+            assertEquals(store.get("kept"), store.get("linked"));
+            assertNull(store.get("torn"));
+            // the blob of the lost record is not named any more
+            assertEquals(700, store.collectGarbage());
+            assertEquals(1, store.getBlobCount());
+
+            store.put("after", new ByteArrayInputStream(randomBytes(300, 6)));
+        } finally {
+            store.close();
+        }
+
+        // the torn tail was cut off on open, records appended later are read back
+        store = BlobStore.open(directory);
+        try {
+            assertEquals(3, store.getNameCount());
+            assertNotNull(store.get("after"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void dropsNamesWhoseBlobIsMissing() throws Exception {
+        File directory = new File(dir, "store");
+        BlobStore store = BlobStore.open(directory);
+        store.put("lost", new ByteArrayInputStream(randomBytes(400, 7)));
+        store.link("lost too", "lost");
+        store.put("kept", new ByteArrayInputStream(randomBytes(400, 8)));
+        File lost = store.get("lost");
+        store.close();
+        assertTrue(lost.delete());
+
+        store = BlobStore.open(directory);
+        try {
+            assertNull(store.get("lost"));
+            assertNull(store.get("lost too"));
+            assertNotNull(store.get("kept"));
+            assertEquals(1, store.getNameCount());
+            assertEquals(1, store.getBlobCount());
+
+            // the content can be stored again
+            store.put("lost", new ByteArrayInputStream(randomBytes(400, 7)));
+            assertTrue(store.get("lost").isFile());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNameTooLongForIndex() throws Exception {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 22000; i++) {
+            name.append('\u1100'); // three bytes in modified UTF-8
+        }
+        BlobStore store = BlobStore.open(new File(dir, "store"));
+        try {
+            store.put(name.toString(), new ByteArrayInputStream(new byte[1]));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static String sha256Hex(byte[] data) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
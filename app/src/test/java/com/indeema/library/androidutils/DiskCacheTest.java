@@ -0,0 +1,276 @@
+package com.indeema.library.androidutils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DiskCacheTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestFiles.createTempDirectory("cache");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void replaysJournal() throws IOException {
+        writeEntry("a", 10);
+        writeEntry("b", 20);
+        writeEntry("c", 30);
+        writeEntry("d", 40);
+        writeJournal("CLEAN a",
+                "CLEAN b",
+                "CLEAN c",
+                "READ a",
+                "REMOVE b",
+                "READ never-stored",
+                "CLEAN d",
+                "REMOVE d",
+                "CLEAN e");
+
+        DiskCache cache = DiskCache.open(dir, 1000);
+        try {
+            assertEquals(40, cache.size());
+            assertNotNull(cache.get("a"));
+            assertNull(cache.get("b"));
+            assertNotNull(cache.get("c"));
+            assertNull(cache.get("d"));
+            assertNull(cache.get("e"));
+            assertNull(cache.get("never-stored"));
+        } finally {
+            cache.close();
+        }
+        assertFalse(new File(dir, "b").exists());
+        assertFalse(new File(dir, "d").exists());
+    }
+
+    @Test
+    public void replaysAccessOrder() throws IOException {
+        DiskCache cache = DiskCache.open(dir, 1000);
+        try {
+            put(cache, "a", 100);
+            put(cache, "b", 100);
+            put(cache, "c", 100);
+            assertNotNull(cache.get("a"));
+        } finally {
+            cache.close();
+        }
+
+        // b is the least recently used after the READ of a is replayed
+        cache = DiskCache.open(dir, 200);
+        try {
+            assertEquals(200, cache.size());
+            assertEquals(1, cache.getEvictionCount());
+            assertNull(cache.get("b"));
+            assertNotNull(cache.get("a"));
+            assertNotNull(cache.get("c"));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void ignoresTornLastLine() throws IOException {
+        writeEntry("kept", 10);
+        writeEntry("second", 20);
+        // the crash cut the key of "REMOVE kept" off
+        writeJournal("CLEAN kept", "CLEAN second", "REMOVE kept");
+        String journal = read(new File(dir, "journal"));
+        Files.write(new File(dir, "journal").toPath(),
+                journal.substring(0, journal.length() - "kept\n".length()).getBytes(UTF_8));
+
+        DiskCache cache = DiskCache.open(dir, 1000);
+        try {
+            assertNotNull(cache.get("kept"));
+            assertNotNull(cache.get("second"));
+            assertEquals(30, cache.size());
+        } finally {
+            cache.close();
+        }
+
+        // the crash cut "CLEAN second" short
+        writeJournal("CLEAN kept", "CLEAN sec");
+        cache = DiskCache.open(dir, 1000);
+        try {
+            // the torn key has no file and is dropped, the file it was meant to name too
+            assertNotNull(cache.get("kept"));
+            assertNull(cache.get("second"));
+            assertNull(cache.get("sec"));
+            assertEquals(10, cache.size());
+        } finally {
+            cache.close();
+        }
+        assertFalse(new File(dir, "second").exists());
+    }
+
+    @Test
+    public void deletesOrphansOnOpen() throws IOException {
+        DiskCache cache = DiskCache.open(dir, 1000);
+        try {
+            put(cache, "entry", 50);
+        } finally {
+            cache.close();
+        }
+        // a write interrupted before its rename, a file no entry names and a journal rebuild
+        writeEntry("entry.tmp12", 70);
+        writeEntry("stray", 30);
+        writeEntry("journal.tmp", 5);
+
+        cache = DiskCache.open(dir, 1000);
+        try {
+            assertEquals(50, cache.size());
+            assertNotNull(cache.get("entry"));
+        } finally {
+            cache.close();
+        }
+        assertEquals(Arrays.asList("entry", "journal"), sorted(dir.list()));
+
+        // an entry whose file is gone is dropped
+        assertTrue(new File(dir, "entry").delete());
+        cache = DiskCache.open(dir, 1000);
+        try {
+            assertEquals(0, cache.size());
+            assertNull(cache.get("entry"));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void rebuildsJournalOnOpen() throws IOException {
+        writeEntry("a", 10);
+        writeEntry("b", 10);
+        writeJournal("CLEAN a", "CLEAN b", "READ a", "READ a", "REMOVE b", "CLEAN b", "READ a");
+
+        DiskCache.open(dir, 1000).close();
+
+        assertEquals(Arrays.asList("indeema.DiskCache", "1", "CLEAN b", "CLEAN a"), lines(new File(dir, "journal")));
+        assertFalse(new File(dir, "journal.tmp").exists());
+    }
+
+    @Test
+    public void compactsRedundantJournal() throws IOException {
+        DiskCache cache = DiskCache.open(dir, 1000);
+        try {
+            put(cache, "a", 10);
+            put(cache, "b", 10);
+            for (int i = 0; i < 2500; i++) {
+                assertNotNull(cache.get(i % 2 == 0 ? "a" : "b"));
+            }
+        } finally {
+            cache.close();
+        }
+
+        // rebuilt after 2000 reads, only the reads since then are left
+        List<String> journal = lines(new File(dir, "journal"));
+        assertEquals(2 + 2 + 500, journal.size());
+        assertFalse(new File(dir, "journal.tmp").exists());
+
+        cache = DiskCache.open(dir, 1000);
+        try {
+            assertEquals(20, cache.size());
+            assertNotNull(cache.get("a"));
+            assertNotNull(cache.get("b"));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void ignoresJournalOfOtherFormat() throws IOException {
+        writeEntry("a", 10);
+        Files.write(new File(dir, "journal").toPath(), "other\n1\nCLEAN a\n".getBytes(UTF_8));
+
+        DiskCache cache = DiskCache.open(dir, 1000);
+        try {
+            assertNull(cache.get("a"));
+            assertEquals(0, cache.size());
+        } finally {
+            cache.close();
+        }
+        assertFalse(new File(dir, "a").exists());
+    }
+
+    @Test
+    public void keepsOldContentWhenWriteFails() throws IOException {
+        DiskCache cache = DiskCache.open(dir, 1000);
+        try {
+            put(cache, "a", 10);
+            try {
+                cache.put("a", new DiskCache.EntryWriter() {
+                    @Override
+                    public void write(OutputStream out) throws IOException {
+                        out.write(new byte[5]);
+                        throw new IOException("failed");
+                    }
+                });
+                fail("a failed write was committed");
+            } catch (IOException expected) {
+                // the old content stays
+            }
+            assertArrayEquals(new byte[10], Files.readAllBytes(cache.get("a").toPath()));
+            assertEquals(10, cache.size());
+        } finally {
+            cache.close();
+        }
+        assertEquals(Arrays.asList("a", "journal"), sorted(dir.list()));
+    }
+
+    private void writeEntry(String name, int length) throws IOException {
+        Files.write(new File(dir, name).toPath(), new byte[length]);
+    }
+
+    private void writeJournal(String... records) throws IOException {
+        StringBuilder journal = new StringBuilder("indeema.DiskCache\n1\n");
+        for (String record : records) {
+            journal.append(record).append('\n');
+        }
+        Files.write(new File(dir, "journal").toPath(), journal.toString().getBytes(UTF_8));
+    }
+
+    private static void put(DiskCache cache, String key, final int length) throws IOException {
+        cache.put(key, new DiskCache.EntryWriter() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                out.write(new byte[length]);
+            }
+        });
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8);
+    }
+
+    private static List<String> lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), UTF_8);
+    }
+
+    private static List<String> sorted(String[] names) {
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+}
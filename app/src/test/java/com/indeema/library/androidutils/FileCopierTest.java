@@ -0,0 +1,274 @@
+package com.indeema.library.androidutils;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileCopierTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestFiles.createTempDirectory("copier");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void copiesFile() throws IOException {
+        byte[] data = randomBytes(3 * 1024 * 1024 + 17, 41);
+        File source = write("source", data);
+        File target = new File(dir, "target");
+
+        // small transfer chunks, so progress is reported several times
+        final List<Long> progress = new ArrayList<>();
+        assertTrue(new FileCopier(4096, 1024 * 1024).copy(source, target, new FileCopier.ProgressListener() {
+            @Override
+            public boolean onProgress(long copied, long total) {
+                progress.add(copied);
+                return true;
+            }
+        }));
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertEquals(4, progress.size());
+        assertEquals(Long.valueOf(data.length), progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void cancelledCopyDeletesTarget() throws IOException {
+        File source = write("source", randomBytes(4 * 1024 * 1024, 42));
+        File target = new File(dir, "target");
+
+        assertFalse(new FileCopier(4096, 1024 * 1024).copy(source, target, new FileCopier.ProgressListener() {
+            @Override
+            public boolean onProgress(long copied, long total) {
+                return false;
+            }
+        }));
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void copiesStreams() throws IOException {
+        byte[] data = randomBytes(200 * 1024 + 3, 43);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(new FileCopier(1024, FileCopier.DEFAULT_TRANSFER_CHUNK)
+                .copy(new ByteArrayInputStream(data), out, data.length, null));
+        assertArrayEquals(data, out.toByteArray());
+
+        // file streams go through the kernel from where the source stands
+        File source = write("source", data);
+        File target = new File(dir, "target");
+        InputStream in = new FileInputStream(source);
+        OutputStream fileOut = new FileOutputStream(target);
+        try {
+            assertEquals(100, in.skip(100));
+            assertTrue(new FileCopier().copy(in, fileOut, -1, null));
+        } finally {
+            in.close();
+            fileOut.close();
+        }
+        assertArrayEquals(Arrays.copyOfRange(data, 100, data.length), Files.readAllBytes(target.toPath()));
+    }
+
+    /**
+     * A file stream on a pipe, e.g. from ParcelFileDescriptor.createPipe, has size 0 and
+     * can not seek, it must be copied as a stream
+     */
+    @Test
+    public void copiesFromPipe() throws Exception {
+        final File fifo = new File(dir, "fifo");
+        Assume.assumeTrue("needs mkfifo", mkfifo(fifo));
+        final byte[] data = randomBytes(1024 * 1024 + 5, 44);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = new FileOutputStream(fifo);
+                    try {
+                        out.write(data);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        writer.start();
+
+        File target = new File(dir, "target");
+        InputStream in = new FileInputStream(fifo);
+        OutputStream out = new FileOutputStream(target);
+        try {
+            assertTrue(new FileCopier().copy(in, out, -1, null));
+        } finally {
+            in.close();
+            out.close();
+        }
+        writer.join();
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void copiesAll() throws Exception {
+        List<File> sources = new ArrayList<>();
+        List<File> targets = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            sources.add(write("source" + i, randomBytes(1000 * i, i)));
+            targets.add(new File(dir, "target" + i));
+        }
+
+        assertEquals(12, new FileCopier().copyAll(sources, targets, 4));
+        for (int i = 0; i < sources.size(); i++) {
+            assertArrayEquals(Files.readAllBytes(sources.get(i).toPath()), Files.readAllBytes(targets.get(i).toPath()));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void copyAllReportsFailure() throws Exception {
+        List<File> sources = Arrays.asList(write("source", new byte[10]), new File(dir, "missing"));
+        List<File> targets = Arrays.asList(new File(dir, "a"), new File(dir, "b"));
+        new FileCopier().copyAll(sources, targets, 2);
+    }
+
+    @Test
+    public void resumesAfterTornJournalRecord() throws Exception {
+        byte[] data = randomBytes(10 * 64 * 1024 + 99, 46);
+        File source = write("source", data);
+        File target = new File(dir, "target");
+        File journal = new File(dir, "target.copyjournal");
+        FileCopier copier = new FileCopier();
+
+        assertFalse(copier.copyResumable(source, target, 64 * 1024, 1, cancelAfter(3)));
+        // process death in the middle of a record
+        FileOutputStream out = new FileOutputStream(journal, true);
+        try {
+            out.write(new byte[5]);
+        } finally {
+            out.close();
+        }
+
+        assertFalse(copier.copyResumable(source, target, 64 * 1024, 1, cancelAfter(2)));
+        long records = journal.length() - (4 + 4 + 8 + 8 + 4);
+        assertEquals(0, records % 12);
+        assertEquals(5, records / 12);
+
+        final List<Long> progress = new ArrayList<>();
+        assertTrue(copier.copyResumable(source, target, 64 * 1024, 2, new FileCopier.ProgressListener() {
+            @Override
+            public boolean onProgress(long copied, long total) {
+                progress.add(copied);
+                return true;
+            }
+        }));
+        // only the chunks not in the journal are copied again
+        assertEquals(6, progress.size());
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertFalse(journal.exists());
+    }
+
+    /**
+     * Kernel transfer and pooled buffers against a plain 1 KB buffer loop
+     */
+    @Test
+    public void benchmark() throws Exception {
+        Benchmark.assumeEnabled();
+        final File source = write("source", randomBytes(64 * 1024 * 1024, 45));
+        final File target = new File(dir, "target");
+        final byte[] data = Files.readAllBytes(source.toPath());
+        final FileCopier copier = new FileCopier();
+
+        long plain = Benchmark.bestOf(6, new Benchmark.Body() {
+            @Override
+            public void run() throws IOException {
+                InputStream in = new FileInputStream(source);
+                OutputStream out = new FileOutputStream(target);
+                try {
+                    byte[] buffer = new byte[1024];
+                    int count;
+                    while ((count = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                    out.close();
+                }
+            }
+        });
+        long file = Benchmark.bestOf(6, new Benchmark.Body() {
+            @Override
+            public void run() throws IOException {
+                copier.copy(source, target, null);
+            }
+        });
+        long stream = Benchmark.bestOf(6, new Benchmark.Body() {
+            @Override
+            public void run() throws IOException {
+                OutputStream out = new FileOutputStream(target);
+                try {
+                    copier.copy(new ByteArrayInputStream(data), out, data.length, null);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        Benchmark.report("FileCopier 64 MB", "1 KB loop %.1f ms, file %.1f ms, stream %.1f ms",
+                plain / 1e6, file / 1e6, stream / 1e6);
+    }
+
+    private static FileCopier.ProgressListener cancelAfter(final int chunks) {
+        return new FileCopier.ProgressListener() {
+            private int count;
+
+            @Override
+            public boolean onProgress(long copied, long total) {
+                return ++count < chunks;
+            }
+        };
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static boolean mkfifo(File file) {
+        try {
+            return new ProcessBuilder("mkfifo", file.getPath()).start().waitFor() == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+}
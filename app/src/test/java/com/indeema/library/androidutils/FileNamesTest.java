@@ -0,0 +1,192 @@
+package com.indeema.library.androidutils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FileNames against the regular expressions it replaced and a port of the AOSP Uri path
+ * parsing. Paths with '%' or '\' are left out, FileNames hands those to the platform Uri.
+ */
+public class FileNamesTest {
+
+    private static final String IMAGE_PATTERN = ".*\\.(?:png|jpg|jpeg|bmp)$";
+    private static final String PDF_PATTERN = ".*\\.(?:pdf)$";
+    private static final Pattern EXTENSION = Pattern.compile("\\.\\p{Alnum}+$");
+
+    private static final String[] PIECES = {
+            "a", "Z", "0", "9", ".", "/", "//", ":", "-", "_", " ", "?", "#", "png", "JPG", "jpeg", "Bmp",
+            "pdf", "PDF", "\u0130", "\u0131", "\u00E9", "\n", "\r", "\r\n", "\u0085", "\u2028", "\u2029",
+            "\uD83D\uDE00", "\uD83D", "\uDE00", "content:", "file://", "http://host"
+    };
+
+    @Test
+    public void examples() {
+        assertEquals("photo", FileNames.removeExtension("photo.jpg"));
+        assertEquals("archive.tar", FileNames.removeExtension("archive.tar.gz"));
+        assertEquals("photo\n", FileNames.removeExtension("photo.jpg\n"));
+        assertEquals("no_extension.", FileNames.removeExtension("no_extension."));
+        assertEquals("a_b_.c-d", FileNames.replaceIllegalCharacter("a b\uD83D\uDE00.c-d"));
+        assertTrue(FileNames.isImage("/DCIM/IMG_1.JPG"));
+        assertFalse(FileNames.isImage("/DCIM/IMG_1.JPG\n"));
+        assertTrue(FileNames.isPdf("doc.pdf"));
+        assertFalse(FileNames.isPdf("doc.PDF"));
+        assertEquals("IMG_1.jpg", FileNames.getFileName("/storage/emulated/0/DCIM/IMG_1.jpg"));
+        assertEquals("b", FileNames.getFileName("content://authority/a/b/?q=1"));
+        assertNull(FileNames.getFileName("mailto:someone"));
+        assertNull(FileNames.getFileName("http://host?q"));
+    }
+
+    @Test
+    public void matchesReferenceOnRandomStrings() {
+        Locale locale = Locale.getDefault();
+        try {
+            for (Locale test : new Locale[]{Locale.US, new Locale("tr"), new Locale("lt")}) {
+                Locale.setDefault(test);
+                Random random = new Random(48);
+                for (int i = 0; i < 200000; i++) {
+                    String s = randomString(random);
+                    assertEquals(s, EXTENSION.matcher(s).replaceAll(""), FileNames.removeExtension(s));
+                    assertEquals(s, s.replaceAll("[^a-zA-Z0-9.\\-]", "_"), FileNames.replaceIllegalCharacter(s));
+                    assertEquals(s, s.toLowerCase().matches(IMAGE_PATTERN), FileNames.isImage(s));
+                    assertEquals(s, s.matches(PDF_PATTERN), FileNames.isPdf(s));
+                    assertEquals(s, referenceFileName(s), FileNames.getFileName(s));
+                }
+            }
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void arrayVariantsMatchSingleCalls() {
+        Random random = new Random(49);
+        String[] paths = new String[500];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = randomString(random);
+        }
+        String[] names = new String[paths.length];
+        boolean[] flags = new boolean[paths.length];
+
+        FileNames.getFileName(paths, names);
+        for (int i = 0; i < paths.length; i++) {
+            assertEquals(FileNames.getFileName(paths[i]), names[i]);
+        }
+        FileNames.removeExtension(paths, names);
+        for (int i = 0; i < paths.length; i++) {
+            assertEquals(FileNames.removeExtension(paths[i]), names[i]);
+        }
+        FileNames.replaceIllegalCharacter(paths, names);
+        for (int i = 0; i < paths.length; i++) {
+            assertEquals(FileNames.replaceIllegalCharacter(paths[i]), names[i]);
+        }
+        int images = FileNames.isImage(paths, flags);
+        int count = 0;
+        for (int i = 0; i < paths.length; i++) {
+            assertEquals(FileNames.isImage(paths[i]), flags[i]);
+            if (flags[i]) count++;
+        }
+        assertEquals(count, images);
+        int pdfs = FileNames.isPdf(paths, flags);
+        count = 0;
+        for (int i = 0; i < paths.length; i++) {
+            assertEquals(FileNames.isPdf(paths[i]), flags[i]);
+            if (flags[i]) count++;
+        }
+        assertEquals(count, pdfs);
+    }
+
+    /**
+     * All five checks over a listing of camera paths, scanners against regex and the Uri port
+     */
+    @Test
+    public void benchmark() throws Exception {
+        Benchmark.assumeEnabled();
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            paths.add(String.format(Locale.US, "/storage/emulated/0/DCIM/Camera/IMG_20240101_%06d.%s",
+                    i, i % 10 == 0 ? "pdf" : "jpg"));
+        }
+        final int[] sink = new int[1];
+
+        long scanners = Benchmark.bestOf(20, new Benchmark.Body() {
+            @Override
+            public void run() {
+                int count = 0;
+                for (String path : paths) {
+                    count += FileNames.removeExtension(path).length();
+                    count += FileNames.replaceIllegalCharacter(path).length();
+                    count += FileNames.getFileName(path).length();
+                    if (FileNames.isImage(path)) count++;
+                    if (FileNames.isPdf(path)) count++;
+                }
+                sink[0] += count;
+            }
+        });
+        long regex = Benchmark.bestOf(20, new Benchmark.Body() {
+            @Override
+            public void run() {
+                int count = 0;
+                for (String path : paths) {
+                    count += Pattern.compile("\\.\\p{Alnum}+$").matcher(path).replaceAll("").length();
+                    count += path.replaceAll("[^a-zA-Z0-9.\\-]", "_").length();
+                    count += referenceFileName(path).length();
+                    if (path.toLowerCase().matches(IMAGE_PATTERN)) count++;
+                    if (path.matches(PDF_PATTERN)) count++;
+                }
+                sink[0] += count;
+            }
+        });
+        Benchmark.report("FileNames 10k paths", "scanners %.1f ms, regex %.1f ms", scanners / 1e6, regex / 1e6);
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = random.nextInt(8); i >= 0; i--) {
+            builder.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Uri.parse(path).getLastPathSegment() as in AOSP StringUri, for paths without '%'
+     * and '\'
+     */
+    private static String referenceFileName(String uri) {
+        int ssi = uri.indexOf(':');
+        if (ssi > -1 && (ssi + 1 == uri.length() || uri.charAt(ssi + 1) != '/')) return null;
+
+        int length = uri.length();
+        int pathStart;
+        if (length > ssi + 2 && uri.charAt(ssi + 1) == '/' && uri.charAt(ssi + 2) == '/') {
+            pathStart = ssi + 3;
+            while (pathStart < length) {
+                char c = uri.charAt(pathStart);
+                if (c == '?' || c == '#') return null;
+                if (c == '/') break;
+                pathStart++;
+            }
+        } else {
+            pathStart = ssi + 1;
+        }
+        int pathEnd = pathStart;
+        while (pathEnd < length && uri.charAt(pathEnd) != '?' && uri.charAt(pathEnd) != '#') {
+            pathEnd++;
+        }
+
+        String last = null;
+        for (String segment : uri.substring(pathStart, pathEnd).split("/")) {
+            if (!segment.isEmpty()) last = segment;
+        }
+        return last;
+    }
+}
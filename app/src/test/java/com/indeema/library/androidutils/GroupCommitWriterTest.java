@@ -0,0 +1,178 @@
+package com.indeema.library.androidutils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitWriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestFiles.createTempDirectory("group-commit");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void commitsWindowAsOneGroup() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(500);
+        List<GroupCommitWriter.Commit> commits = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            commits.add(writer.write(new File(dir, "file" + i), "text " + i, UTF_8));
+        }
+        for (GroupCommitWriter.Commit commit : commits) {
+            commit.await();
+        }
+        writer.close();
+
+        assertEquals(1, writer.getGroupCount());
+        assertEquals(5, writer.getWriteCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("text " + i, read(new File(dir, "file" + i)));
+        }
+    }
+
+    @Test
+    public void lastWriteToFileWins() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(500);
+        File file = new File(dir, "file");
+        GroupCommitWriter.Commit first = writer.write(file, "first", UTF_8);
+        GroupCommitWriter.Commit second = writer.write(file, "second", UTF_8);
+        GroupCommitWriter.Commit third = writer.write(file, "third", UTF_8);
+        third.await();
+        writer.close();
+
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        first.await();
+        second.await();
+        assertEquals(1, writer.getWriteCount());
+        assertEquals("third", read(file));
+        assertEquals(1, dir.list().length);
+    }
+
+    @Test
+    public void everyWaiterCompletes() throws Exception {
+        final GroupCommitWriter writer = new GroupCommitWriter(20);
+        final int threads = 8;
+        final int writesPerThread = 50;
+        final File missing = new File(dir, "missing/file");
+        final List<GroupCommitWriter.Commit> good = new ArrayList<>();
+        final List<GroupCommitWriter.Commit> bad = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < writesPerThread; i++) {
+                        GroupCommitWriter.Commit commit;
+                        if (i % 10 == 3) {
+                            commit = writer.write(missing, "lost", UTF_8);
+                        } else if (i % 10 == 7) {
+                            commit = writer.write(new File(dir, "broken" + id), new BrokenText(), UTF_8);
+                        } else {
+                            commit = writer.write(new File(dir, "file" + (i % 4)), id + ":" + i, UTF_8);
+                        }
+                        synchronized (good) {
+                            (i % 10 == 3 || i % 10 == 7 ? bad : good).add(commit);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            writers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        writer.close();
+
+        for (GroupCommitWriter.Commit commit : good) {
+            assertTrue(commit.isDone());
+            commit.await();
+        }
+        for (GroupCommitWriter.Commit commit : bad) {
+            assertTrue(commit.isDone());
+            try {
+                commit.await();
+                fail("a failed write completed normally");
+            } catch (IOException expected) {
+                // reported to every waiter of the write
+            }
+        }
+        assertEquals(threads * writesPerThread, good.size() + bad.size());
+        for (File file : dir.listFiles()) {
+            assertTrue(file.getName(), file.getName().startsWith("file"));
+        }
+    }
+
+    @Test
+    public void writesAfterCloseFail() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(1);
+        writer.close();
+        GroupCommitWriter.Commit commit = writer.write(new File(dir, "file"), "text", UTF_8);
+        assertTrue(commit.isDone());
+        try {
+            commit.await();
+            fail("write after close completed normally");
+        } catch (IOException expected) {
+            // closed
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8);
+    }
+
+    /**
+     * Text that fails as soon as it is read
+     */
+    private static final class BrokenText implements CharSequence {
+        @Override
+        public int length() {
+            throw new IllegalStateException("broken");
+        }
+
+        @Override
+        public char charAt(int index) {
+            throw new IllegalStateException("broken");
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            throw new IllegalStateException("broken");
+        }
+
+        @Override
+        public String toString() {
+            throw new IllegalStateException("broken");
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.indeema.library.androidutils;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ImageHeaderTest {
+
+    private static final int FUZZ_ITERATIONS = 200_000;
+
+    @Test
+    public void parsesPng() throws IOException {
+        ImageHeader header = parse(png(640, 480));
+        assertNotNull(header);
+        assertEquals(ImageHeader.MIME_PNG, header.getMimeType());
+        assertEquals(640, header.getWidth());
+        assertEquals(480, header.getHeight());
+        assertEquals(ImageHeader.ORIENTATION_NORMAL, header.getOrientation());
+    }
+
+    @Test
+    public void parsesGif() throws IOException {
+        ImageHeader header = parse(gif(300, 17));
+        assertNotNull(header);
+        assertEquals(ImageHeader.MIME_GIF, header.getMimeType());
+        assertEquals(300, header.getWidth());
+        assertEquals(17, header.getHeight());
+    }
+
+    @Test
+    public void parsesWebp() throws IOException {
+        for (byte[] data : new byte[][]{webpLossy(1024, 768), webpLossless(1024, 768), webpExtended(1024, 768)}) {
+            ImageHeader header = parse(data);
+            assertNotNull(header);
+            assertEquals(ImageHeader.MIME_WEBP, header.getMimeType());
+            assertEquals(1024, header.getWidth());
+            assertEquals(768, header.getHeight());
+        }
+    }
+
+    @Test
+    public void parsesJpegWithExif() throws IOException {
+        for (int orientation = ImageHeader.ORIENTATION_NORMAL; orientation <= ImageHeader.ORIENTATION_ROTATE_270; orientation++) {
+            for (boolean bigEndian : new boolean[]{true, false}) {
+                ImageHeader header = parse(jpeg(4032, 3024, orientation, bigEndian));
+                assertNotNull(header);
+                assertEquals(ImageHeader.MIME_JPEG, header.getMimeType());
+                assertEquals(4032, header.getWidth());
+                assertEquals(3024, header.getHeight());
+                assertEquals(orientation, header.getOrientation());
+            }
+        }
+    }
+
+    @Test
+    public void mapsOrientationToRotation() throws IOException {
+        int[] degrees = {0, 0, 180, 180, 90, 90, 270, 270};
+        boolean[] flipped = {false, true, false, true, true, false, true, false};
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            ImageHeader header = parse(jpeg(10, 20, orientation, true));
+            assertNotNull(header);
+            assertEquals("orientation " + orientation, degrees[orientation - 1], header.getRotationDegrees());
+            assertEquals("orientation " + orientation, flipped[orientation - 1], header.isFlipped());
+        }
+    }
+
+    @Test
+    public void rejectsUnknownAndEmpty() throws IOException {
+        assertNull(parse(new byte[0]));
+        assertNull(parse(new byte[]{0x42, 0x4D, 0, 0}));
+        assertNull(parse("%PDF-1.4".getBytes("US-ASCII")));
+    }
+
+    /**
+     * Mutated and truncated headers must give null or a valid size, never throw, and never
+     * read beyond the scan limit
+     */
+    @Test
+    public void fuzz() throws IOException {
+        byte[][] seeds = {
+                png(640, 480), gif(300, 17), webpLossy(1024, 768), webpLossless(1024, 768),
+                webpExtended(1024, 768), jpeg(4032, 3024, 6, true), jpeg(4032, 3024, 8, false),
+        };
+        Random random = new Random(36);
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            byte[] data = mutate(seeds[random.nextInt(seeds.length)], random);
+            CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(data));
+            ImageHeader header = ImageHeader.parse(in);
+            assertTrue("read " + in.count + " bytes", in.count <= ImageHeader.SCAN_LIMIT);
+            if (header != null) {
+                assertTrue(Arrays.toString(data), header.getWidth() > 0 && header.getHeight() > 0);
+                assertTrue(header.getOrientation() >= ImageHeader.ORIENTATION_NORMAL
+                        && header.getOrientation() <= ImageHeader.ORIENTATION_ROTATE_270);
+            }
+        }
+    }
+
+    @Test
+    public void stopsAtScanLimit() throws IOException {
+        // an endless run of padding segments after the start of image
+        InputStream endless = new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                long p = position++;
+                if (p == 0) return 0xFF;
+                if (p == 1) return 0xD8;
+                // FF FE 00 02: empty comment segments
+                switch ((int) ((p - 2) % 4)) {
+                    case 0:
+                        return 0xFF;
+                    case 1:
+                        return 0xFE;
+                    case 2:
+                        return 0x00;
+                    default:
+                        return 0x02;
+                }
+            }
+        };
+        CountingInputStream in = new CountingInputStream(endless);
+        assertNull(ImageHeader.parse(in));
+        assertTrue(in.count <= ImageHeader.SCAN_LIMIT);
+    }
+
+    /**
+     * Camera JPEGs carry ICC, MPF and XMP segments before the frame, far beyond 64 KB;
+     * a stream decode marks the scan limit and rewinds after the header
+     */
+    @Test
+    public void rewindsAfterLargeSegments() throws IOException {
+        byte[] plain = jpeg(4000, 3000, ImageHeader.ORIENTATION_ROTATE_90, true);
+        Bytes b = new Bytes();
+        b.raw(0xFF, 0xD8);
+        for (int i = 0; i < 4; i++) {
+            b.raw(0xFF, 0xE2).int16(60000 + 2).bytes(new byte[60000]);
+        }
+        b.write(plain, 2, plain.length - 2);
+        byte[] data = b.toByteArray();
+
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(data), 16 * 1024);
+        in.mark(ImageHeader.SCAN_LIMIT);
+        ImageHeader header = ImageHeader.parse(in);
+        in.reset();
+        assertNotNull(header);
+        assertEquals(4000, header.getWidth());
+        assertEquals(ImageHeader.ORIENTATION_ROTATE_90, header.getOrientation());
+        assertEquals(0xFF, in.read());
+        assertEquals(0xD8, in.read());
+    }
+
+    private static ImageHeader parse(byte[] data) throws IOException {
+        return ImageHeader.parse(new ByteArrayInputStream(data));
+    }
+
+    private static byte[] mutate(byte[] seed, Random random) {
+        byte[] data = seed.clone();
+        switch (random.nextInt(4)) {
+            case 0:
+                data = Arrays.copyOf(data, random.nextInt(data.length + 1));
+                break;
+            case 1:
+                for (int i = random.nextInt(8); i >= 0; i--) {
+                    data[random.nextInt(data.length)] = (byte) random.nextInt();
+                }
+                break;
+            case 2:
+                for (int i = random.nextInt(4); i >= 0; i--) {
+                    data[random.nextInt(data.length)] = (byte) (random.nextBoolean() ? 0xFF : 0x00);
+                }
+                break;
+            default:
+                data = Arrays.copyOf(data, data.length + random.nextInt(64));
+                for (int i = seed.length; i < data.length; i++) {
+                    data[i] = (byte) random.nextInt();
+                }
+                data[2 + random.nextInt(data.length - 2)] = (byte) random.nextInt();
+                break;
+        }
+        return data;
+    }
+
+    static byte[] png(int width, int height) {
+        Bytes b = new Bytes();
+        b.raw(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A).int32(13).ascii("IHDR").int32(width).int32(height);
+        b.raw(8, 6, 0, 0, 0).int32(0);
+        return b.toByteArray();
+    }
+
+    static byte[] gif(int width, int height) {
+        Bytes b = new Bytes();
+        b.ascii("GIF89a").int16le(width).int16le(height).raw(0, 0, 0);
+        return b.toByteArray();
+    }
+
+    static byte[] webpLossy(int width, int height) {
+        Bytes b = new Bytes();
+        b.ascii("RIFF").int32le(30).ascii("WEBP").ascii("VP8 ").int32le(18);
+        b.raw(0, 0, 0, 0x9D, 0x01, 0x2A).int16le(width).int16le(height).raw(0, 0, 0, 0, 0, 0, 0, 0);
+        return b.toByteArray();
+    }
+
+    static byte[] webpLossless(int width, int height) {
+        int bits = (width - 1) | (height - 1) << 14;
+        Bytes b = new Bytes();
+        b.ascii("RIFF").int32le(30).ascii("WEBP").ascii("VP8L").int32le(10).raw(0x2F).int32le(bits).raw(0, 0, 0, 0, 0);
+        return b.toByteArray();
+    }
+
+    static byte[] webpExtended(int width, int height) {
+        Bytes b = new Bytes();
+        b.ascii("RIFF").int32le(30).ascii("WEBP").ascii("VP8X").int32le(10).raw(0, 0, 0, 0)
+                .int24le(width - 1).int24le(height - 1);
+        return b.toByteArray();
+    }
+
+    /**
+     * JPEG with a JFIF segment, an EXIF segment holding the orientation and a baseline frame
+     */
+    static byte[] jpeg(int width, int height, int orientation, boolean bigEndian) {
+        Bytes exif = new Bytes();
+        exif.ascii("Exif").raw(0, 0);
+        if (bigEndian) {
+            exif.ascii("MM").int16(42).int32(8).int16(2);
+            exif.int16(0x010F).int16(2).int32(4).int32(0); // make, value ignored
+            exif.int16(0x0112).int16(3).int32(1).int16(orientation).int16(0);
+            exif.int32(0);
+        } else {
+            exif.ascii("II").int16le(42).int32le(8).int16le(2);
+            exif.int16le(0x010F).int16le(2).int32le(4).int32le(0);
+            exif.int16le(0x0112).int16le(3).int32le(1).int16le(orientation).int16le(0);
+            exif.int32le(0);
+        }
+        byte[] app1 = exif.toByteArray();
+
+        Bytes b = new Bytes();
+        b.raw(0xFF, 0xD8);
+        b.raw(0xFF, 0xE0).int16(16).ascii("JFIF").raw(0, 1, 1, 0).int16(1).int16(1).raw(0, 0);
+        b.raw(0xFF, 0xE1).int16(app1.length + 2).bytes(app1);
+        b.raw(0xFF, 0xDB).int16(3).raw(0);
+        b.raw(0xFF, 0xC0).int16(11).raw(8).int16(height).int16(width).raw(1, 1, 0x11, 0);
+        b.raw(0xFF, 0xDA).int16(2);
+        b.raw(0xFF, 0xD9);
+        return b.toByteArray();
+    }
+
+    private static final class Bytes extends ByteArrayOutputStream {
+        Bytes raw(int... values) {
+            for (int value : values) {
+                write(value);
+            }
+            return this;
+        }
+
+        Bytes bytes(byte[] values) {
+            write(values, 0, values.length);
+            return this;
+        }
+
+        Bytes ascii(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                write(value.charAt(i));
+            }
+            return this;
+        }
+
+        Bytes int16(int value) {
+            return raw(value >> 8, value);
+        }
+
+        Bytes int16le(int value) {
+            return raw(value, value >> 8);
+        }
+
+        Bytes int24le(int value) {
+            return raw(value, value >> 8, value >> 16);
+        }
+
+        Bytes int32(int value) {
+            return raw(value >> 24, value >> 16, value >> 8, value);
+        }
+
+        Bytes int32le(int value) {
+            return raw(value, value >> 8, value >> 16, value >> 24);
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.indeema.library.androidutils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedLineReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestFiles.createTempDirectory("lines");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void growsWindowForLongLines() throws IOException {
+        String longLine = repeat("0123456789", 10);
+        File file = write("a\n" + longLine + "\nbc\n" + longLine.substring(37) + "\n");
+
+        List<String> lines = new ArrayList<>();
+        List<Long> positions = new ArrayList<>();
+        MappedLineReader reader = open(file, 16);
+        try {
+            reader.forEachLine(collect(lines, positions));
+            assertEquals(file.length(), reader.getPosition());
+        } finally {
+            reader.close();
+        }
+        assertEquals(Arrays.asList("a", longLine, "bc", longLine.substring(37)), lines);
+        assertEquals(Arrays.asList(0L, 2L, 103L, 106L), positions);
+    }
+
+    @Test
+    public void joinsCrlfSplitAcrossWindows() throws IOException {
+        // the window of 8 bytes ends between \r and \n
+        File file = write("abcdefg\r\nxy\r\nlast");
+        assertEquals(Arrays.asList("abcdefg", "xy", "last"), readLines(file, 8));
+    }
+
+    @Test
+    public void decodesCharacterSplitAcrossWindows() throws IOException {
+        // e-acute, euro sign and an emoji take 2, 3 and 4 bytes
+        String text = "abcdefg\u00E9\nabcdef\u20AC\nabcde\uD83D\uDE00x\n";
+        File file = write(text);
+        for (int window = 1; window <= 12; window++) {
+            List<String> lines = readLines(file, window);
+            assertEquals("window " + window,
+                    Arrays.asList("abcdefg\u00E9", "abcdef\u20AC", "abcde\uD83D\uDE00x"), lines);
+        }
+    }
+
+    @Test
+    public void matchesStringSplitForEveryWindowSize() throws IOException {
+        String text = "first\r\n\r\n\u00FCber\nmixed \u0434\u0430 \u20AC\r\n\n"
+                + repeat("x", 50) + "\r\n\uD83D\uDE00\r\ntrailing\r";
+        File file = write(text);
+        List<String> expected = Arrays.asList(text.split("\r?\n", -1));
+        // no empty line after the final line break
+        expected = new ArrayList<>(expected);
+        expected.set(expected.size() - 1, "trailing");
+        for (int window = 1; window <= 64; window++) {
+            assertEquals("window " + window, expected, readLines(file, window));
+        }
+    }
+
+    @Test
+    public void splitPartsReadEveryLineOnce() throws IOException {
+        StringBuilder text = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String line = i % 7 == 0 ? "\u00E9l\u00E8ve " + i : "line " + i;
+            expected.add(line);
+            text.append(line).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        File file = write(text.toString());
+
+        List<String> lines = new ArrayList<>();
+        List<MappedLineReader> readers = MappedLineReader.split(file, 7, 64);
+        assertEquals(7, readers.size());
+        long previousEnd = 0;
+        for (MappedLineReader reader : readers) {
+            try {
+                assertEquals(previousEnd, reader.getPosition());
+                reader.forEachLine(collect(lines, null));
+                previousEnd = reader.getEnd();
+            } finally {
+                reader.close();
+            }
+        }
+        assertEquals(file.length(), previousEnd);
+        assertEquals(expected, lines);
+    }
+
+    @Test
+    public void readsRecordFields() throws IOException {
+        File file = write("id,name,count\r\n42,caf\u00E9,-17\n,,\n"
+                + "9223372036854775807,x,-9223372036854775808\n");
+        final List<List<String>> records = new ArrayList<>();
+        final List<Long> numbers = new ArrayList<>();
+        MappedLineReader reader = open(file, 8);
+        try {
+            reader.forEachRecord(',', new MappedLineReader.RecordVisitor() {
+                @Override
+                public boolean onRecord(MappedLineReader.Record record) {
+                    List<String> fields = new ArrayList<>();
+                    for (int i = 0; i < record.getFieldCount(); i++) {
+                        fields.add(record.getField(i).toString());
+                    }
+                    records.add(fields);
+                    if (record.getLine().getFilePosition() > 0 && record.getField(0).getByteLength() > 0) {
+                        numbers.add(record.getField(0).parseLong());
+                        numbers.add(record.getField(2).parseLong());
+                    }
+                    return true;
+                }
+            });
+        } finally {
+            reader.close();
+        }
+
+        assertEquals(Arrays.asList(
+                Arrays.asList("id", "name", "count"),
+                Arrays.asList("42", "caf\u00E9", "-17"),
+                Arrays.asList("", "", ""),
+                Arrays.asList("9223372036854775807", "x", "-9223372036854775808")), records);
+        assertEquals(Arrays.asList(42L, -17L, Long.MAX_VALUE, Long.MIN_VALUE), numbers);
+    }
+
+    @Test
+    public void fieldsKnowTheirPositionAndEncoding() throws IOException {
+        File file = write("a\tcaf\u00E9\tb\n");
+        final List<Long> positions = new ArrayList<>();
+        final List<Boolean> ascii = new ArrayList<>();
+        MappedLineReader reader = MappedLineReader.open(file);
+        try {
+            reader.forEachRecord('\t', new MappedLineReader.RecordVisitor() {
+                @Override
+                public boolean onRecord(MappedLineReader.Record record) {
+                    assertFalse(record.getLine().isAscii());
+                    for (int i = 0; i < record.getFieldCount(); i++) {
+                        MappedLineReader.Text field = record.getField(i);
+                        positions.add(field.getFilePosition());
+                        ascii.add(field.isAscii());
+                    }
+                    assertTrue(record.getField(1).contentEquals("caf\u00E9"));
+                    return true;
+                }
+            });
+        } finally {
+            reader.close();
+        }
+        assertEquals(Arrays.asList(0L, 2L, 8L), positions);
+        assertEquals(Arrays.asList(true, false, true), ascii);
+    }
+
+    @Test
+    public void rejectsFieldsThatAreNotNumbers() throws IOException {
+        File file = write("12a,,-,9223372036854775808,-9223372036854775809,+7\n");
+        final List<String> rejected = new ArrayList<>();
+        final List<Long> parsed = new ArrayList<>();
+        MappedLineReader reader = MappedLineReader.open(file);
+        try {
+            reader.forEachRecord(',', new MappedLineReader.RecordVisitor() {
+                @Override
+                public boolean onRecord(MappedLineReader.Record record) {
+                    for (int i = 0; i < record.getFieldCount(); i++) {
+                        MappedLineReader.Text field = record.getField(i);
+                        try {
+                            parsed.add(field.parseLong());
+                        } catch (NumberFormatException e) {
+                            rejected.add(field.toString());
+                        }
+                    }
+                    return true;
+                }
+            });
+        } finally {
+            reader.close();
+        }
+        assertEquals(Arrays.asList("12a", "", "-", "9223372036854775808", "-9223372036854775809"), rejected);
+        assertEquals(Arrays.asList(7L), parsed);
+    }
+
+    @Test
+    public void stopsWhenVisitorReturnsFalse() throws IOException {
+        File file = write("one\ntwo\nthree\n");
+        MappedLineReader reader = MappedLineReader.open(file);
+        try {
+            long count = reader.forEachLine(new MappedLineReader.LineVisitor() {
+                @Override
+                public boolean onLine(MappedLineReader.Text line) {
+                    return !line.contentEquals("two");
+                }
+            });
+            assertEquals(2, count);
+            assertEquals(8, reader.getPosition());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void rejectsNonPositiveWindow() throws IOException {
+        File file = write("x\n");
+        try {
+            open(file, 0).close();
+            fail("window of 0 bytes accepted");
+        } catch (IllegalArgumentException expected) {
+            // a window must hold at least a byte
+        }
+    }
+
+    private File write(String text) throws IOException {
+        File file = new File(dir, "text");
+        Files.write(file.toPath(), text.getBytes(UTF_8));
+        return file;
+    }
+
+    private static MappedLineReader open(File file, int windowSize) throws IOException {
+        return MappedLineReader.split(file, 1, windowSize).get(0);
+    }
+
+    private static List<String> readLines(File file, int windowSize) throws IOException {
+        List<String> lines = new ArrayList<>();
+        MappedLineReader reader = open(file, windowSize);
+        try {
+            reader.forEachLine(collect(lines, null));
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static MappedLineReader.LineVisitor collect(final List<String> lines, final List<Long> positions) {
+        return new MappedLineReader.LineVisitor() {
+            @Override
+            public boolean onLine(MappedLineReader.Text line) {
+                lines.add(line.toString());
+                if (positions != null) positions.add(line.getFilePosition());
+                return true;
+            }
+        };
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+}
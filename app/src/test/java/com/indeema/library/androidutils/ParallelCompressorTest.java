@@ -0,0 +1,206 @@
+package com.indeema.library.androidutils;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelCompressorTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestFiles.createTempDirectory("compressor");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void gzipRoundTrip() throws IOException {
+        Random random = new Random(50);
+        for (int length : new int[]{0, 1, 32 * 1024, 32 * 1024 + 1, 500 * 1024 + 7}) {
+            byte[] data = compressible(random, length);
+            for (int threads : new int[]{1, 3}) {
+                ParallelCompressor compressor = new ParallelCompressor(threads, 32 * 1024, Deflater.DEFAULT_COMPRESSION);
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    long written = compressor.gzip(new ByteArrayInputStream(data), out);
+                    assertEquals(out.size(), written);
+                    assertArrayEquals(data, gunzip(out.toByteArray()));
+                } finally {
+                    compressor.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void zipReadsBack() throws IOException {
+        Random random = new Random(51);
+        Map<String, byte[]> expected = new HashMap<>();
+        expected.put("a.txt", compressible(random, 10));
+        expected.put("empty", new byte[0]);
+        expected.put("sub/b.bin", compressible(random, 300 * 1024));
+        expected.put("sub/deeper/c", compressible(random, 70 * 1024));
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+        assertTrue(new File(dir, "sub/empty-dir").mkdir());
+
+        File target = new File(TestFiles.createTempDirectory("archive"), "out.zip");
+        ParallelCompressor compressor = new ParallelCompressor(2, 64 * 1024, Deflater.DEFAULT_COMPRESSION);
+        try {
+            assertEquals(4, compressor.zip(dir, target));
+        } finally {
+            compressor.close();
+        }
+        Map<String, byte[]> entries = unzip(target);
+        assertEquals(expected.keySet(), entries.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), entries.get(entry.getKey()));
+        }
+        TestFiles.delete(target.getParentFile());
+    }
+
+    @Test
+    public void zipLeavesOutTargetAndLinks() throws IOException {
+        write("a.txt", new byte[]{1, 2, 3});
+        write("sub/b.txt", new byte[]{4});
+        try {
+            Files.createSymbolicLink(new File(dir, "sub/loop").toPath(), dir.toPath());
+            Files.createSymbolicLink(new File(dir, "link.txt").toPath(), new File(dir, "a.txt").toPath());
+        } catch (UnsupportedOperationException | IOException e) {
+            Assume.assumeNoException(e);
+        }
+        // also reached through a relative path
+        File target = new File(new File(dir, "sub"), "../archive.zip");
+
+        ParallelCompressor compressor = new ParallelCompressor(2);
+        try {
+            assertEquals(2, compressor.zip(dir, target));
+        } finally {
+            compressor.close();
+        }
+        Map<String, byte[]> entries = unzip(target);
+        assertEquals(2, entries.size());
+        assertNotNull(entries.get("a.txt"));
+        assertNotNull(entries.get("sub/b.txt"));
+    }
+
+    /**
+     * Gzip throughput of 1, 2, 4 and 8 threads, bounded by the cores of the machine
+     */
+    @Test
+    public void benchmark() throws Exception {
+        Benchmark.assumeEnabled();
+        final byte[] data = compressible(new Random(52), 32 * 1024 * 1024);
+        final NullOutputStream sink = new NullOutputStream();
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            final ParallelCompressor compressor = new ParallelCompressor(threads);
+            try {
+                long best = Benchmark.bestOf(4, new Benchmark.Body() {
+                    @Override
+                    public void run() throws IOException {
+                        compressor.gzip(new ByteArrayInputStream(data), sink);
+                    }
+                });
+                Benchmark.report("ParallelCompressor gzip 32 MB", "%d threads %.1f ms, %.1f MB/s on %d cores",
+                        threads, best / 1e6, data.length / (best / 1e9) / (1024 * 1024),
+                        Runtime.getRuntime().availableProcessors());
+            } finally {
+                compressor.close();
+            }
+        }
+    }
+
+    /**
+     * Text like data, random words from a small vocabulary
+     */
+    private static byte[] compressible(Random random, int length) {
+        String[] words = {"pixel ", "bitmap ", "cache ", "thumbnail ", "decode ", "stream ", "\n", "0x7f ", "tile "};
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 16);
+        while (out.size() < length) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            out.write(word, 0, word.length);
+            if (random.nextInt(8) == 0) out.write(random.nextInt(256));
+        }
+        byte[] data = out.toByteArray();
+        return data.length == length ? data : Arrays.copyOf(data, length);
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        return readAll(new GZIPInputStream(new ByteArrayInputStream(gzip)));
+    }
+
+    private static Map<String, byte[]> unzip(File file) throws IOException {
+        Map<String, byte[]> entries = new HashMap<>();
+        ZipFile zip = new ZipFile(file);
+        try {
+            Enumeration<? extends ZipEntry> iterator = zip.entries();
+            while (iterator.hasMoreElements()) {
+                ZipEntry entry = iterator.nextElement();
+                entries.put(entry.getName(), readAll(zip.getInputStream(entry)));
+            }
+        } finally {
+            zip.close();
+        }
+        return entries;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void write(String name, byte[] data) throws IOException {
+        File file = new File(dir, name);
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), data);
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.indeema.library.androidutils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PixelBufferTest {
+
+    @Test
+    public void blendMatchesPerChannelReference() {
+        int width = 97;
+        int height = 61;
+        Random random = new Random(39);
+        for (float ratio : new float[]{0f, 0.1f, 0.5f, 0.73f, 1f}) {
+            PixelBuffer a = randomBuffer(random, width, height);
+            PixelBuffer b = randomBuffer(random, width, height);
+            int[] first = pixels(a);
+            int[] second = pixels(b);
+
+            a.blend(b, ratio);
+            int[] blended = pixels(a);
+            for (int i = 0; i < blended.length; i++) {
+                for (int shift = 0; shift < 32; shift += 8) {
+                    float expected = ((first[i] >>> shift) & 0xFF) * (1 - ratio) + ((second[i] >>> shift) & 0xFF) * ratio;
+                    int actual = (blended[i] >>> shift) & 0xFF;
+                    // the ratio is rounded to 1/256 steps and the result truncated
+                    assertTrue("ratio " + ratio + " pixel " + i, Math.abs(actual - expected) < 2);
+                }
+            }
+            if (ratio == 0f) assertArrayEquals(first, blended);
+            if (ratio == 1f) assertArrayEquals(second, blended);
+        }
+    }
+
+    @Test
+    public void luminanceMatchesReference() {
+        Random random = new Random(40);
+        PixelBuffer buffer = randomBuffer(random, 50, 40);
+        int[] pixels = pixels(buffer);
+
+        ByteBuffer out = ByteBuffer.allocateDirect(3 + pixels.length);
+        out.position(3);
+        buffer.fillLuminance(out);
+        assertEquals(3 + pixels.length, out.position());
+
+        long sum = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            int expected = referenceLuminance(pixels[i]);
+            assertEquals(expected, out.get(3 + i) & 0xFF);
+            sum += expected;
+        }
+        assertEquals(sum / pixels.length, buffer.averageLuminance());
+    }
+
+    @Test
+    public void copyRegionMatchesArrayCopy() {
+        Random random = new Random(41);
+        PixelBuffer source = randomBuffer(random, 64, 48);
+        PixelBuffer dest = randomBuffer(random, 20, 30);
+        int[] sourcePixels = pixels(source);
+        int[] expected = pixels(dest);
+        for (int row = 0; row < 25; row++) {
+            System.arraycopy(sourcePixels, (7 + row) * 64 + 40, expected, row * 20, 17);
+        }
+
+        source.copyRegion(dest, 40, 7, 17, 25);
+        assertArrayEquals(expected, pixels(dest));
+    }
+
+    @Test
+    public void copyRegionRejectsRegionsOutside() {
+        PixelBuffer source = PixelBuffer.allocate(10, 10);
+        PixelBuffer dest = PixelBuffer.allocate(5, 5);
+        int[][] regions = {{-1, 0, 2, 2}, {0, 0, 11, 2}, {6, 6, 5, 5}, {0, 0, 6, 2}, {0, 0, 2, 6}};
+        for (int[] region : regions) {
+            try {
+                source.copyRegion(dest, region[0], region[1], region[2], region[3]);
+                fail("accepted " + region[2] + "x" + region[3] + " at " + region[0] + "," + region[1]);
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+
+    /**
+     * In place kernels against the int[] path, where pixels are first copied to an array
+     * the way getPixels does and written back afterwards
+     */
+    @Test
+    public void benchmark() throws Exception {
+        Benchmark.assumeEnabled();
+        final int width = 2000;
+        final int height = 2000;
+        Random random = new Random(42);
+        final PixelBuffer first = randomBuffer(random, width, height);
+        final PixelBuffer second = randomBuffer(random, width, height);
+        final PixelBuffer crop = PixelBuffer.allocate(1000, 1000);
+        final ByteBuffer luminance = ByteBuffer.allocateDirect(width * height);
+
+        measure("blend, PixelBuffer", new Benchmark.Body() {
+            @Override
+            public void run() {
+                first.blend(second, 0.5f);
+            }
+        });
+        measure("blend, int[]", new Benchmark.Body() {
+            @Override
+            public void run() {
+                int[] a = pixels(first);
+                int[] b = pixels(second);
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = blendReference(a[i], b[i], 0.5f);
+                }
+                writePixels(first, a);
+            }
+        });
+        measure("luminance, PixelBuffer", new Benchmark.Body() {
+            @Override
+            public void run() {
+                luminance.clear();
+                first.fillLuminance(luminance);
+            }
+        });
+        measure("luminance, int[]", new Benchmark.Body() {
+            @Override
+            public void run() {
+                int[] a = pixels(first);
+                byte[] out = new byte[a.length];
+                for (int i = 0; i < a.length; i++) {
+                    out[i] = (byte) referenceLuminance(a[i]);
+                }
+            }
+        });
+        measure("crop 1000x1000, PixelBuffer", new Benchmark.Body() {
+            @Override
+            public void run() {
+                first.copyRegion(crop, 500, 500, 1000, 1000);
+            }
+        });
+        measure("crop 1000x1000, int[]", new Benchmark.Body() {
+            @Override
+            public void run() {
+                int[] a = pixels(first);
+                int[] out = new int[1000 * 1000];
+                for (int row = 0; row < 1000; row++) {
+                    System.arraycopy(a, (500 + row) * width + 500, out, row * 1000, 1000);
+                }
+                writePixels(crop, out);
+            }
+        });
+    }
+
+    private static void measure(String name, Benchmark.Body body) throws Exception {
+        long allocatedBefore = Benchmark.allocatedBytes();
+        body.run();
+        long allocated = Benchmark.allocatedBytes() - allocatedBefore;
+        long best = Benchmark.bestOf(10, body);
+        Benchmark.report("PixelBuffer " + name, "%.1f ms, %.1f MB heap per run",
+                best / 1e6, allocated / (1024.0 * 1024.0));
+    }
+
+    private static PixelBuffer randomBuffer(Random random, int width, int height) {
+        PixelBuffer buffer = PixelBuffer.allocate(width, height);
+        IntBuffer pixels = buffer.getBuffer().asIntBuffer();
+        for (int i = 0; i < width * height; i++) {
+            pixels.put(i, random.nextInt());
+        }
+        return buffer;
+    }
+
+    private static int[] pixels(PixelBuffer buffer) {
+        int[] pixels = new int[buffer.getWidth() * buffer.getHeight()];
+        buffer.getBuffer().duplicate().order(ByteOrder.nativeOrder()).asIntBuffer().get(pixels);
+        return pixels;
+    }
+
+    private static void writePixels(PixelBuffer buffer, int[] pixels) {
+        buffer.getBuffer().duplicate().order(ByteOrder.nativeOrder()).asIntBuffer().put(pixels);
+    }
+
+    /**
+     * Per channel blend like {@link ColorUtils#blendColors}
+     */
+    private static int blendReference(int a, int b, float ratio) {
+        float inverse = 1f - ratio;
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int channel = (int) (((a >>> shift) & 0xFF) * inverse + ((b >>> shift) & 0xFF) * ratio);
+            result |= channel << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Rec. 601 luma of R, G, B, A bytes read as a native order int
+     */
+    private static int referenceLuminance(int pixel) {
+        if (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) pixel = Integer.reverseBytes(pixel);
+        int r = pixel & 0xFF;
+        int g = pixel >>> 8 & 0xFF;
+        int b = pixel >>> 16 & 0xFF;
+        return (r * 77 + g * 150 + b * 29) >> 8;
+    }
+}
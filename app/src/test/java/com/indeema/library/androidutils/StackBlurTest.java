@@ -0,0 +1,176 @@
+package com.indeema.library.androidutils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class StackBlurTest {
+
+    private final StackBlur single = new StackBlur(1);
+    private final StackBlur parallel = new StackBlur(4);
+
+    @After
+    public void tearDown() {
+        single.shutdown();
+        parallel.shutdown();
+    }
+
+    @Test
+    public void matchesReference() {
+        int[][] sizes = {{1, 1}, {1, 37}, {37, 1}, {64, 48}, {101, 67}};
+        int[] radii = {1, 2, 7, 25, StackBlur.MAX_RADIUS};
+        Random random = new Random(1);
+        for (int[] size : sizes) {
+            for (int radius : radii) {
+                int[] pixels = randomPixels(random, size[0] * size[1]);
+                int[] expected = referenceBlur(pixels, size[0], size[1], radius);
+                int[] actual = pixels.clone();
+                single.blur(actual, size[0], size[1], radius);
+                assertArrayEquals(size[0] + "x" + size[1] + " r" + radius, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void stripesMatchSingleThread() {
+        Random random = new Random(2);
+        int width = 333;
+        int height = 211;
+        for (int radius : new int[]{1, 16, 90}) {
+            int[] pixels = randomPixels(random, width * height);
+            int[] expected = pixels.clone();
+            single.blur(expected, width, height, radius);
+            int[] actual = pixels.clone();
+            parallel.blur(actual, width, height, radius);
+            assertArrayEquals("r" + radius, expected, actual);
+        }
+    }
+
+    @Test
+    public void reusedInstanceHandlesSizeChanges() {
+        Random random = new Random(3);
+        int[][] sizes = {{200, 100}, {20, 10}, {300, 300}};
+        for (int[] size : sizes) {
+            int[] pixels = randomPixels(random, size[0] * size[1]);
+            int[] expected = referenceBlur(pixels, size[0], size[1], 12);
+            parallel.blur(pixels, size[0], size[1], 12);
+            assertArrayEquals(expected, pixels);
+        }
+    }
+
+    @Test
+    public void callerScratchIsThreadSafe() throws InterruptedException {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final long seed = 10 + t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 20; i++) {
+                            int width = 20 + random.nextInt(100);
+                            int height = 20 + random.nextInt(100);
+                            int radius = 1 + random.nextInt(30);
+                            int[] pixels = randomPixels(random, width * height);
+                            int[] expected = referenceBlur(pixels, width, height, radius);
+                            parallel.blur(pixels, new int[width * height], width, height, radius);
+                            assertArrayEquals(expected, pixels);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) throw new AssertionError(failure.get());
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        Benchmark.assumeEnabled();
+        // a 1080x2400 screen downscaled by ImageUtils.BITMAP_SCALE
+        final int width = 432;
+        final int height = 960;
+        final int[] source = randomPixels(new Random(4), width * height);
+        final int[] pixels = new int[source.length];
+
+        long reference = Benchmark.bestOf(3, new Benchmark.Body() {
+            @Override
+            public void run() {
+                referenceBlur(source, width, height, 16);
+            }
+        });
+        Benchmark.report("StackBlur reference", "%.1f ms", reference / 1e6);
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            final StackBlur blur = new StackBlur(threads);
+            try {
+                long best = Benchmark.bestOf(10, new Benchmark.Body() {
+                    @Override
+                    public void run() {
+                        System.arraycopy(source, 0, pixels, 0, source.length);
+                        blur.blur(pixels, width, height, 16);
+                    }
+                });
+                Benchmark.report("StackBlur " + threads + " threads", "%.1f ms", best / 1e6);
+            } finally {
+                blur.shutdown();
+            }
+        }
+    }
+
+    private static int[] randomPixels(Random random, int count) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    /**
+     * Triangle kernel of weights r + 1 - |i| with repeated edges, rows first, every pass
+     * rounded down like the stack blur
+     */
+    private static int[] referenceBlur(int[] pixels, int width, int height, int radius) {
+        int[] temp = new int[width * height];
+        int[] result = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                temp[y * width + x] = kernel(pixels, y * width, 1, width, x, radius);
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                result[y * width + x] = kernel(temp, x, width, height, y, radius);
+            }
+        }
+        return result;
+    }
+
+    private static int kernel(int[] line, int offset, int step, int length, int center, int radius) {
+        long divisor = (long) (radius + 1) * (radius + 1);
+        int result = 0;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            long sum = 0;
+            for (int i = -radius; i <= radius; i++) {
+                int position = Math.min(length - 1, Math.max(0, center + i));
+                sum += (long) ((line[offset + position * step] >>> shift) & 0xFF) * (radius + 1 - Math.abs(i));
+            }
+            result |= (int) (sum / divisor) << shift;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+package com.indeema.library.androidutils;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StorageJanitorTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestFiles.createTempDirectory("janitor");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void touchCountsWrittenBytes() throws IOException {
+        StorageJanitor janitor = new StorageJanitor(1000, 10);
+        janitor.manage(dir);
+        File old = write("old", 600);
+        janitor.add(old);
+        // indexed empty, like FileUtils.createImageFile
+        File picture = write("picture", 0);
+        janitor.add(picture);
+        assertEquals(600, janitor.getSize());
+
+        Files.write(picture.toPath(), new byte[700]);
+        janitor.touch(picture);
+        assertEquals(1300, janitor.getSize());
+
+        assertTrue(janitor.trim(10));
+        assertFalse(old.exists());
+        assertTrue(picture.exists());
+        assertEquals(700, janitor.getSize());
+        assertEquals(1, janitor.getEvictionCount());
+    }
+
+    @Test
+    public void trimReadsSizeOfEldest() throws IOException {
+        StorageJanitor janitor = new StorageJanitor(1000, 10);
+        File first = write("first", 800);
+        janitor.add(first);
+        File second = write("second", 300);
+        janitor.add(second);
+        // shrunk since it was indexed, the budget is met without a delete
+        Files.write(first.toPath(), new byte[100]);
+
+        assertTrue(janitor.trim(10));
+        assertTrue(first.exists());
+        assertEquals(400, janitor.getSize());
+        assertEquals(0, janitor.getEvictionCount());
+    }
+
+    @Test
+    public void rebuildSkipsSymbolicLinks() throws IOException {
+        File sub = new File(dir, "sub");
+        assertTrue(sub.mkdir());
+        write("sub/a", 10);
+        write("b", 20);
+        try {
+            Files.createSymbolicLink(new File(sub, "loop").toPath(), dir.toPath());
+            Files.createSymbolicLink(new File(dir, "link").toPath(), new File(dir, "b").toPath());
+        } catch (UnsupportedOperationException | IOException e) {
+            Assume.assumeNoException(e);
+        }
+
+        StorageJanitor janitor = new StorageJanitor(1000, 10);
+        janitor.manage(dir);
+        janitor.rebuild(2);
+        assertEquals(2, janitor.getFileCount());
+        assertEquals(30, janitor.getSize());
+    }
+
+    private File write(String name, int length) throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), new byte[length]);
+        return file;
+    }
+}
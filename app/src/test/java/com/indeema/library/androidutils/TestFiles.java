@@ -0,0 +1,34 @@
+package com.indeema.library.androidutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Scratch directories for the file tests.
+ */
+
+final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    static File createTempDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /**
+     * Delete a file or a directory tree. Symbolic links are deleted, not followed, so
+     * tests may link outside their directory.
+     */
+    static void delete(File file) {
+        File[] children = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}